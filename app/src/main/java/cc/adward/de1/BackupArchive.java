@@ -1,41 +1,47 @@
 package cc.adward.de1;
 
-
-import android.content.ContentResolver;
-import android.content.Context;
-import android.support.v4.provider.DocumentFile;
-import android.util.Log;
-import android.util.Pair;
-
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import org.apache.commons.io.IOUtils;
+import org.javatuples.Pair;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 public class BackupArchive {
 
     public static final String BACKUP_DIRECTORY_NAME = "_profile_backup";
 
-    private ContentResolver contentResolver;
-    private DocumentFile backupDir;
+    private static final String REWRITE_SUFFIX = ".tmp"; // a container being rewritten, see deleteBackup
+    private static final String NEW_BACKUP_FILE = "new" + BackupContainer.EXT + ".partial"; // named once complete
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private StorageFile backupDir;
     private List<Backup> backups;
+    private BackupCatalog catalog;
+    private Map<String, String> storedContents; // {blob_sha : name of the container storing it}
 
-    public BackupArchive(Context ctx, DocumentFile installationDir) {
-        this.contentResolver = ctx.getContentResolver();
+    public BackupArchive(StorageFile installationDir) {
         this.backupDir = installationDir.findFile(BACKUP_DIRECTORY_NAME);
         if (this.backupDir == null) {
             this.backupDir = installationDir.createDirectory(BACKUP_DIRECTORY_NAME);
@@ -43,119 +49,545 @@ public class BackupArchive {
         listBackups();
     }
 
-    public DocumentFile getBackupDir() {
+    public StorageFile getBackupDir() {
         return backupDir;
     }
 
+    /**
+     * Lists backups from the catalog, describing only the backups it is missing.
+     */
     public List<Backup> listBackups() {
         if (backups != null) {
             return backups;
         }
 
+        Map<String, StorageFile> backupFiles = new TreeMap<>(); // {backup_name : file}, oldest first
+        StorageFile catalogFile = null;
+        StorageFile catalogTmpFile = null;
+        List<StorageFile> rewritten = new ArrayList<>();
+        for (StorageFile f : backupDir.listFiles()) {
+            if (Backup.isBackup(f.getName())) {
+                backupFiles.put(f.getName(), f);
+            } else if (f.getName().equals(BackupCatalog.CATALOG_FILE)) {
+                catalogFile = f;
+            } else if (f.getName().equals(BackupCatalog.CATALOG_TMP_FILE)) {
+                catalogTmpFile = f;
+            } else if (f.getName().endsWith(BackupContainer.EXT + REWRITE_SUFFIX)) {
+                rewritten.add(f);
+            }
+        }
+        catalog = BackupCatalog.load(catalogFile, catalogTmpFile);
+        boolean stale = catalog == null;
+        if (catalog == null) {
+            catalog = new BackupCatalog();
+        }
+        for (StorageFile f : rewritten) {
+            String name = f.getName().substring(0, f.getName().length() - REWRITE_SUFFIX.length());
+            if (backupFiles.containsKey(name)) {
+                f.delete(); // interrupted before the swap, the original is intact
+            } else if (f.renameTo(name)) {
+                backupFiles.put(name, f); // interrupted in the middle of the swap
+                stale |= catalog.remove(name);
+            }
+        }
+        stale |= catalog.retainAll(backupFiles.keySet());
+
         backups = new ArrayList<>();
-        DocumentFile[] files = backupDir.listFiles();
-        Arrays.sort(files, (lhs, rhs) -> lhs.getName().compareTo(rhs.getName()));
-        for (DocumentFile f : files) {
-            if (f.getName().endsWith(Backup.BACKUP_EXT)) {
-                backups.add(new Backup(f));
+        for (StorageFile f : backupFiles.values()) {
+            BackupCatalog.Record r = catalog.get(f.getName());
+            if (r == null || (f.getName().endsWith(BackupContainer.EXT) && r.stored == null)) {
+                r = Backup.describe(f);
+                catalog.put(r);
+                stale = true;
             }
+            backups.add(new Backup(f, this, r));
+        }
+        if (stale) {
+            saveCatalog();
         }
         return backups;
     }
 
-    public void newBackup(DocumentFile profileDir) {
-        DocumentFile[] files = profileDir.listFiles();
-        String filename = Backup.makeBackupFilename(files.length);
-        Backup b = new Backup(backupDir.createFile(Backup.BACKUP_MIME, filename));
-        for (DocumentFile p : profileDir.listFiles()) {
-            try (InputStream in = contentResolver.openInputStream(p.getUri())) {
-                b.add(p.getName(), IOUtils.toByteArray(in));
-            } catch (IOException e) {
-                Log.w("backup", e);
+    private void saveCatalog() {
+        try {
+            catalog.save(backupDir);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot save backup catalog", e);
+        }
+    }
+
+    private Backup findBackup(String name) {
+        for (Backup b : listBackups()) {
+            if (b.getName().equals(name)) {
+                return b;
             }
         }
-        b.writeBackup(contentResolver);
+        return null;
+    }
+
+    StorageFile findBackupFile(String name) {
+        Backup b = findBackup(name);
+        return b != null ? b.getFile() : null;
+    }
+
+    /**
+     * @return which container stores each content, from the catalog alone
+     */
+    private Map<String, String> storedContents() {
+        if (storedContents == null) {
+            storedContents = new HashMap<>();
+            for (Backup b : listBackups()) {
+                for (String sha : b.getStoredShas()) {
+                    storedContents.putIfAbsent(sha, b.getName());
+                }
+            }
+        }
+        return storedContents;
+    }
+
+    /**
+     * Locates a content some container stores; only the index of that container is read.
+     *
+     * @return the content referred to under {@code name}, null if no readable container stores it
+     */
+    private BackupContainer.Entry findStored(String sha, String name) {
+        Backup holder = findBackup(storedContents().getOrDefault(sha, ""));
+        if (holder == null) {
+            return null;
+        }
+        try {
+            for (BackupContainer.Entry e : holder.getIndex()) {
+                if (e.container.isEmpty() && e.sha.equals(sha)) {
+                    return e.referencedAs(name, holder.getName());
+                }
+            }
+        } catch (IOException e) {
+            logger.warning(String.format("Unreadable backup %s: %s", holder.getName(), e.getMessage()));
+        }
+        return null;
+    }
+
+    /**
+     * Writes a container of the profiles, storing only contents no earlier container holds.
+     *
+     * @return the new backup, null if it could not be written
+     */
+    public Backup newBackup(StorageFile profileDir) {
+        StorageFile[] files = profileDir.listFiles();
+        // written aside, the name records how many profiles made it into the backup
+        StorageFile backupFile = backupDir.findFile(NEW_BACKUP_FILE);
+        if (backupFile != null) {
+            backupFile.delete(); // left behind by an interrupted backup
+        }
+        backupFile = backupDir.createFile(Backup.BACKUP_MIME, NEW_BACKUP_FILE);
+        if (backupFile == null) {
+            logger.warning("Cannot create backup " + NEW_BACKUP_FILE);
+            return null;
+        }
+        int written = 0;
+        Map<String, BackupContainer.Entry> added = new HashMap<>();
+        List<BackupContainer.Entry> index;
+        try (BackupContainer.Writer w = new BackupContainer.Writer(backupFile.openOutputStream(false))) {
+            for (StorageFile p : files) {
+                // profiles are mapped once, then hashed and deflated from the mapping;
+                // what cannot be mapped is streamed, hashed first and read again only when its content is new
+                try {
+                    ByteBuffer content = map(p);
+                    String sha = content != null ? GitBlob.sha(content) : hash(p);
+                    BackupContainer.Entry known = added.containsKey(sha)
+                            ? added.get(sha).named(p.getName()) : findStored(sha, p.getName());
+                    if (known != null) {
+                        w.addReference(known);
+                        continue;
+                    }
+                    if (content != null) {
+                        added.put(sha, w.add(p.getName(), sha, content));
+                    } else {
+                        try (InputStream in = p.openInputStream()) {
+                            added.put(sha, w.add(p.getName(), sha, in));
+                        }
+                    }
+                    ++written;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Cannot back up " + p.getName(), e);
+                }
+            }
+            index = w.getEntries();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot write backup", e);
+            backupFile.delete();
+            return null;
+        }
+        String filename = Backup.makeBackupFilename(index.size());
+        if (!backupFile.renameTo(filename)) {
+            logger.warning("Cannot name backup " + filename);
+            backupFile.delete();
+            return null;
+        }
+        // only a complete container may be referred to
+        for (String sha : added.keySet()) {
+            storedContents().put(sha, filename);
+        }
+        BackupCatalog.Record r = Backup.describe(filename, index);
+        r.size = backupFile.length();
+        catalog.put(r);
+        saveCatalog();
+        Backup b = new Backup(backupFile, this, r, index);
         backups.add(b);
+        logger.info(String.format("Backup created: %d profiles, %d new", index.size(), written));
+        return b;
+    }
+
+    /**
+     * @return {@code p} mapped, null if its provider hands out no mappable descriptor
+     */
+    private static ByteBuffer map(StorageFile p) {
+        try {
+            return p.map();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String hash(StorageFile p) throws IOException {
+        long length = p.length();
+        try (InputStream in = p.openInputStream()) {
+            String sha = GitBlob.sha(in, length);
+            if (sha != null) {
+                return sha;
+            }
+        }
+        // the provider reported a wrong size, count the bytes before hashing again
+        try (InputStream in = p.openInputStream()) {
+            length = IOUtils.skip(in, Long.MAX_VALUE);
+        }
+        try (InputStream in = p.openInputStream()) {
+            String sha = GitBlob.sha(in, length);
+            if (sha == null) {
+                throw new IOException(p.getName() + " changed while backing up");
+            }
+            return sha;
+        }
+    }
+
+    /**
+     * Deletes a backup. Newer containers may refer to contents stored in it: before it goes, those contents
+     * are copied into the oldest of them, and the others are pointed there.
+     *
+     * @return false if the backup was kept, e.g. because a container referring to it could not be rewritten
+     */
+    public boolean deleteBackup(Backup backup) {
+        List<Backup> all = listBackups();
+        Map<String, BackupContainer.Entry> rehomed = new HashMap<>(); // {blob_sha : entry in its new container}
+        FileChannel deleted = null;
+        try {
+            for (int i = 0; i < all.size(); ++i) { // oldest first, so references only ever point back
+                Backup b = all.get(i);
+                if (b == backup || !b.refersTo(backup.getName())) {
+                    continue;
+                }
+                if (deleted == null) {
+                    deleted = backup.getFile().openChannel();
+                }
+                all.set(i, rehome(b, backup.getName(), deleted, rehomed));
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot delete backup " + backup.getName(), e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(deleted);
+        }
+        if (!backup.getFile().delete()) {
+            logger.warning("Cannot delete backup " + backup.getName());
+            return false;
+        }
+        all.remove(backup);
+        catalog.remove(backup.getName());
+        saveCatalog();
+        storedContents = null;
+        return true;
+    }
+
+    /**
+     * Rewrites container {@code b} with the contents it takes from container {@code deletedName} stored in itself,
+     * or referred to where an earlier rewrite stored them. The rewritten container replaces {@code b} once complete.
+     *
+     * @return the rewritten backup
+     */
+    private Backup rehome(Backup b, String deletedName, FileChannel deleted, Map<String, BackupContainer.Entry> rehomed)
+            throws IOException {
+        String tmpName = b.getName() + REWRITE_SUFFIX;
+        StorageFile tmp = backupDir.findFile(tmpName);
+        if (tmp != null) {
+            tmp.delete();
+        }
+        tmp = backupDir.createFile(Backup.BACKUP_MIME, tmpName);
+        if (tmp == null) {
+            throw new IOException("Cannot create " + tmpName);
+        }
+        Map<String, BackupContainer.Entry> added = new HashMap<>();
+        List<BackupContainer.Entry> index;
+        try (FileChannel ch = b.getFile().openChannel()) {
+            BackupContainer.Writer w = new BackupContainer.Writer(tmp.openOutputStream(false));
+            try {
+                List<BackupContainer.Entry> old = BackupContainer.readIndex(ch);
+                w.copyContents(ch, old);
+                for (BackupContainer.Entry e : old) {
+                    if (!e.container.equals(deletedName)) {
+                        w.addReference(e); // stored at the same offset, or elsewhere still
+                        continue;
+                    }
+                    BackupContainer.Entry home = rehomed.containsKey(e.sha) ? rehomed.get(e.sha) : added.get(e.sha);
+                    if (home != null) {
+                        w.addReference(home.referencedAs(e.name, b.getName()));
+                    } else {
+                        added.put(e.sha, w.addStored(e.name, deleted, e));
+                    }
+                }
+            } finally {
+                w.close();
+            }
+            index = w.getEntries();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!b.getFile().delete() || !tmp.renameTo(b.getName())) {
+            throw new IOException("Cannot replace " + b.getName());
+        }
+        for (BackupContainer.Entry e : added.values()) {
+            rehomed.put(e.sha, e.referencedAs(e.name, b.getName()));
+        }
+        BackupCatalog.Record r = Backup.describe(b.getName(), index);
+        r.size = tmp.length();
+        catalog.put(r);
+        saveCatalog();
+        return new Backup(tmp, this, r, index);
     }
 
-    public void restoreFrom(Backup backup, DocumentFile profileDir) {
-        backup.extractUnder(contentResolver, profileDir);
+    /**
+     * @param fileNames profiles to restore, all if null
+     */
+    public void restoreFrom(Backup backup, RestoreEngine engine, Collection<String> fileNames) {
+        try {
+            backup.extractUnder(engine, fileNames);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot restore from " + backup.getName(), e);
+        }
     }
 }
 
+/**
+ * A backup, either a {@link BackupContainer} or a legacy gzipped json map of file names to contents ({@link #BACKUP_EXT}).
+ */
 class Backup {
 
     public static final String BACKUP_MIME = "application/de1_backup";
     public static final String BACKUP_EXT = ".pbackup";
 
-    private Date timestamp;
-    private DocumentFile backupFile;
-    private Map<String, byte[]> profiles;
-    private boolean readOnly;
+    private static final Logger logger = Logger.getGlobal();
+
+    private StorageFile backupFile;
+    private BackupArchive archive;
+    private BackupCatalog.Record record;
+    private List<BackupContainer.Entry> index; // read from the container when first needed
 
-    public Backup(DocumentFile file) {
+    public Backup(StorageFile file, BackupArchive archive, BackupCatalog.Record record) {
+        this(file, archive, record, null);
+    }
+
+    Backup(StorageFile file, BackupArchive archive, BackupCatalog.Record record, List<BackupContainer.Entry> index) {
         this.backupFile = file;
-        this.timestamp = decodeBackupName(this.backupFile.getName()).first;
-        this.profiles = new HashMap<>();
-        this.readOnly = false;
+        this.archive = archive;
+        this.record = record;
+        this.index = index;
     }
 
     @Override
     public String toString() {
-        String time = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss", Locale.getDefault(Locale.Category.FORMAT)).format(timestamp);
-        int num = decodeBackupName(backupFile.getName()).second;
-        return String.format("%s (%d profiles)", time, num);
+        String time = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss", Locale.getDefault(Locale.Category.FORMAT)).format(new Date(record.timestamp));
+        return String.format("%s (%d profiles)", time, record.profiles);
     }
 
-    private void readBackup(ContentResolver resolver) {
-        readOnly = true;
-        try (GZIPInputStream gzIn = new GZIPInputStream(resolver.openInputStream(backupFile.getUri()))) {
-            profiles = new ObjectMapper().readValue(gzIn, new TypeReference<HashMap<String, byte[]>>() {
-            });
-        } catch (IOException e) {
-            Log.w("backup", e);
+    private static BackupCatalog.Record describe(String name, int profiles) {
+        BackupCatalog.Record r = new BackupCatalog.Record();
+        r.name = name;
+        r.timestamp = decodeBackupName(name).getValue0().getTime();
+        r.profiles = profiles;
+        return r;
+    }
+
+    static BackupCatalog.Record describe(String name, List<BackupContainer.Entry> index) {
+        BackupCatalog.Record r = describe(name, index.size());
+        Set<String> stored = new LinkedHashSet<>();
+        for (BackupContainer.Entry e : index) {
+            if (e.container.isEmpty()) {
+                stored.add(e.sha);
+            }
         }
+        r.stored = new ArrayList<>(stored);
+        return r;
     }
 
-    public void writeBackup(ContentResolver resolver) {
-        try (GZIPOutputStream gzOut = new GZIPOutputStream(resolver.openOutputStream(backupFile.getUri(), "w"))) {
-            new ObjectMapper().writeValue(gzOut, profiles);
-        } catch (IOException e) {
-            Log.w("backup", e);
+    /**
+     * Reads what the catalog keeps about a backup from the backup itself.
+     */
+    static BackupCatalog.Record describe(StorageFile f) {
+        Backup b = new Backup(f, null, describe(f.getName(), decodeBackupName(f.getName()).getValue1()));
+        BackupCatalog.Record r = b.record;
+        if (b.isContainer()) {
+            try {
+                r = describe(f.getName(), b.getIndex());
+            } catch (IOException e) {
+                logger.warning(String.format("Unreadable backup %s: %s", f.getName(), e.getMessage()));
+                r.stored = new ArrayList<>(); // refers to nothing rather than being read again each time
+            }
         }
+        r.size = f.length();
+        return r;
+    }
+
+    public static boolean isBackup(String name) {
+        return name.endsWith(BackupContainer.EXT) || name.endsWith(BACKUP_EXT);
+    }
+
+    public String getName() {
+        return backupFile.getName();
+    }
+
+    public int getProfileCount() {
+        return record.profiles;
+    }
+
+    StorageFile getFile() {
+        return backupFile;
+    }
+
+    private boolean isContainer() {
+        return backupFile.getName().endsWith(BackupContainer.EXT);
+    }
+
+    /**
+     * @return container entries, read from the container the first time; empty for legacy backups
+     */
+    synchronized List<BackupContainer.Entry> getIndex() throws IOException {
+        if (!isContainer()) {
+            return new ArrayList<>();
+        }
+        if (index == null) {
+            try (FileChannel ch = backupFile.openChannel()) {
+                index = BackupContainer.readIndex(ch);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return git blob shas of the contents stored in this container, as recorded in the catalog
+     */
+    List<String> getStoredShas() {
+        return record.stored != null ? record.stored : new ArrayList<>();
+    }
+
+    /**
+     * @return true if some profile of this backup is stored in the container named {@code containerName}
+     */
+    boolean refersTo(String containerName) throws IOException {
+        for (BackupContainer.Entry e : getIndex()) {
+            if (e.container.equals(containerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return file names of the backed up profiles
+     */
+    public List<String> listProfiles() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (isContainer()) {
+            for (BackupContainer.Entry e : getIndex()) {
+                names.add(e.name);
+            }
+        } else {
+            try (JsonParser p = new JsonFactory().createParser(new GZIPInputStream(backupFile.openInputStream()))) {
+                p.nextToken();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    names.add(p.getCurrentName());
+                    p.nextToken(); // the value is skipped undecoded
+                }
+            }
+        }
+        return names;
     }
 
     public static String makeBackupFilename(int profiles) {
-        return String.format("%d_%d%s", new Date().getTime(), profiles, BACKUP_EXT);
+        return String.format("%d_%d%s", new Date().getTime(), profiles, BackupContainer.EXT);
     }
 
     private static Pair<Date, Integer> decodeBackupName(String name) {
-        String[] splits = name.replace(BACKUP_EXT, " ").trim().split("_");
+        String[] splits = name.substring(0, name.lastIndexOf('.')).split("_");
         long dateRaw = Long.parseLong(splits[0]);
-        return Pair.create(new Date(dateRaw), Integer.parseInt(splits[1]));
+        return Pair.with(new Date(dateRaw), Integer.parseInt(splits[1]));
+    }
+
+    /**
+     * Hands the profiles to {@code engine} one at a time, each streamed from the backup when it gets written.
+     *
+     * @param fileNames profiles to extract, all if null
+     */
+    public void extractUnder(RestoreEngine engine, Collection<String> fileNames) throws IOException {
+        if (isContainer()) {
+            extractContainerUnder(engine, fileNames);
+        } else {
+            extractLegacyUnder(engine, fileNames);
+        }
     }
 
-    public void add(String fileName, byte[] content) {
-        if (readOnly) {
-            throw new IllegalStateException("Modifying read-only backup!");
+    private void extractContainerUnder(RestoreEngine engine, Collection<String> fileNames) throws IOException {
+        Map<String, FileChannel> containers = new HashMap<>(); // opened once, shared by the writers
+        try {
+            for (BackupContainer.Entry e : getIndex()) {
+                if (fileNames != null && !fileNames.contains(e.name)) {
+                    continue;
+                }
+                String name = e.container.isEmpty() ? getName() : e.container;
+                FileChannel ch = containers.get(name);
+                if (ch == null) {
+                    StorageFile f = name.equals(getName()) ? backupFile : archive.findBackupFile(name);
+                    if (f == null) {
+                        logger.warning(String.format("Missing backup %s holding %s", name, e.name));
+                        continue;
+                    }
+                    ch = f.openChannel();
+                    containers.put(name, ch);
+                }
+                FileChannel container = ch;
+                engine.submit(e.name, e.sha, () -> BackupContainer.open(container, e));
+            }
+            engine.drain();
+        } finally {
+            for (FileChannel ch : containers.values()) {
+                IOUtils.closeQuietly(ch);
+            }
         }
-        Log.v("backup", String.format("Profile added: %s (%d bytes)", fileName, content.length));
-        profiles.put(fileName, content);
     }
 
-    public void extractUnder(ContentResolver resolver, DocumentFile profileDir) {
-        readBackup(resolver);
-        for (Map.Entry<String, byte[]> e : profiles.entrySet()) {
-            String filename = e.getKey();
-            byte[] content = e.getValue();
-            DocumentFile profileDest = profileDir.findFile(filename);
-            if (profileDest == null) {
-                profileDest = profileDir.createFile("application/profile", filename);
+    private void extractLegacyUnder(RestoreEngine engine, Collection<String> fileNames) throws IOException {
+        try (JsonParser p = new JsonFactory().createParser(new GZIPInputStream(backupFile.openInputStream()))) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a backup: " + backupFile.getName());
             }
-            try (OutputStream out = resolver.openOutputStream(profileDest.getUri(), "wt")) {
-                IOUtils.write(content, out);
-            } catch (IOException x) {
-                Log.w("backup", x);
+            while (p.nextToken() == JsonToken.FIELD_NAME && !engine.isCancelled()) {
+                String filename = p.getCurrentName();
+                p.nextToken();
+                if (fileNames != null && !fileNames.contains(filename)) {
+                    continue;
+                }
+                // decoded one at a time, and only as far ahead of the writers as the engine lets us
+                byte[] content = p.getBinaryValue();
+                engine.submit(filename, GitBlob.sha(content), () -> new ByteArrayInputStream(content));
             }
         }
     }
@@ -0,0 +1,114 @@
+package cc.adward.de1;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What is known about every backup of an archive, kept in one small file next to the backups
+ * so that listing them opens none of them. Besides what a listing shows, it keeps which contents each container
+ * stores, each only once, so a new backup reads only the indexes of the containers holding its unchanged profiles.
+ */
+class BackupCatalog {
+
+    public static final String CATALOG_FILE = "catalog.json.gz";
+    public static final String CATALOG_TMP_FILE = CATALOG_FILE + ".tmp";
+    public static final String CATALOG_MIME = "application/octet-stream";
+
+    private static final Logger logger = Logger.getGlobal();
+
+    static class Record {
+        @JsonProperty
+        String name;
+        @JsonProperty
+        long timestamp;
+        @JsonProperty
+        int profiles;
+        @JsonProperty
+        long size; // bytes of the backup file
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        List<String> stored; // git blob shas of the contents stored in the container itself, containers only
+    }
+
+    @JsonProperty
+    private Map<String, Record> backups = new TreeMap<>(); // {backup_name : record}, oldest first
+
+    public Record get(String name) {
+        return backups.get(name);
+    }
+
+    public void put(Record r) {
+        backups.put(r.name, r);
+    }
+
+    /**
+     * @return true if there was a record of {@code name}
+     */
+    public boolean remove(String name) {
+        return backups.remove(name) != null;
+    }
+
+    /**
+     * @return true if records of backups that no longer exist were dropped
+     */
+    public boolean retainAll(Collection<String> names) {
+        return backups.keySet().retainAll(names);
+    }
+
+    /**
+     * @param catalogFile    the committed catalog, may be null
+     * @param catalogTmpFile a catalog written but not yet committed, may be null
+     * @return the catalog, or null if there is none or it is unreadable
+     */
+    public static BackupCatalog load(StorageFile catalogFile, StorageFile catalogTmpFile) {
+        // the committed catalog is only removed once its replacement is complete
+        StorageFile f = catalogFile != null ? catalogFile : catalogTmpFile;
+        if (f == null) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(f.openInputStream())) {
+            return new ObjectMapper().readValue(in, BackupCatalog.class);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Discarding unreadable backup catalog", e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the catalog under {@code backupDir}: the new one is written aside and swapped in
+     * once complete, so there is always either the old or the new catalog to read.
+     */
+    public void save(StorageFile backupDir) throws IOException {
+        StorageFile tmp = backupDir.findFile(CATALOG_TMP_FILE);
+        if (tmp != null) {
+            tmp.delete();
+        }
+        tmp = backupDir.createFile(CATALOG_MIME, CATALOG_TMP_FILE);
+        if (tmp == null) {
+            throw new IOException("Cannot create backup catalog");
+        }
+        try (OutputStream out = new GZIPOutputStream(tmp.openOutputStream(false))) {
+            new ObjectMapper().writeValue(out, this);
+        }
+        StorageFile committed = backupDir.findFile(CATALOG_FILE);
+        if (committed != null && !committed.delete()) {
+            throw new IOException("Cannot replace backup catalog");
+        }
+        if (!tmp.renameTo(CATALOG_FILE)) {
+            throw new IOException("Cannot commit backup catalog");
+        }
+    }
+}
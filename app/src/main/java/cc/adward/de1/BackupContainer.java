@@ -0,0 +1,270 @@
+package cc.adward.de1;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Random-access backup container.
+ * <pre>
+ * entries : individually deflated profile contents
+ * index   : deflated, count(i32) | count x (name(utf) | sha(utf) | container(utf) | offset(i64) | stored size(i32) | raw size(i32))
+ * trailer : index offset(i64) | index size(i32) | "DE1B"
+ * </pre>
+ * An entry whose container is empty lies in this container, any other names the earlier container holding it,
+ * so a content is stored only once however many backups include it.
+ * A container therefore cannot simply be deleted while a newer one refers to it, see {@link BackupArchive#deleteBackup}.
+ */
+class BackupContainer {
+
+    public static final String EXT = ".pbk";
+
+    private static final byte[] MAGIC = {'D', 'E', '1', 'B'};
+    private static final int TRAILER_SIZE = 8 + 4 + MAGIC.length;
+
+    static class Entry {
+        final String name;
+        final String sha; // git blob sha of the content
+        final String container; // empty for this container
+        final long offset;
+        final int stored;
+        final int raw;
+
+        Entry(String name, String sha, String container, long offset, int stored, int raw) {
+            this.name = name;
+            this.sha = sha;
+            this.container = container;
+            this.offset = offset;
+            this.stored = stored;
+            this.raw = raw;
+        }
+
+        /**
+         * @return this content under another name, located from a container other than {@code holder}
+         */
+        Entry referencedAs(String name, String holder) {
+            return new Entry(name, sha, container.isEmpty() ? holder : container, offset, stored, raw);
+        }
+
+        /**
+         * @return this content under another name, located from the same container
+         */
+        Entry named(String name) {
+            return new Entry(name, sha, container, offset, stored, raw);
+        }
+    }
+
+    private BackupContainer() {
+        // intentionally empty
+    }
+
+    public static List<Entry> readIndex(FileChannel ch) throws IOException {
+        long size = ch.size();
+        if (size < TRAILER_SIZE) {
+            throw new IOException("Truncated backup!");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(ch, trailer, size - TRAILER_SIZE);
+        long indexOffset = trailer.getLong(0);
+        int indexSize = trailer.getInt(8);
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (trailer.get(12 + i) != MAGIC[i]) {
+                throw new IOException("Not a backup container!");
+            }
+        }
+        if (indexOffset < 0 || indexSize < 0 || indexOffset + indexSize > size - TRAILER_SIZE) {
+            throw new IOException("Corrupted backup index!");
+        }
+
+        ByteBuffer packed = ByteBuffer.allocate(indexSize);
+        readFully(ch, packed, indexOffset);
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(packed.array())))) {
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                entries.add(new Entry(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), in.readInt(), in.readInt()));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Reads with positional reads only, so entries of one channel can be read concurrently.
+     *
+     * @param ch channel of the container holding {@code e}
+     */
+    public static InputStream open(FileChannel ch, Entry e) {
+        return new InflaterInputStream(new InputStream() {
+            private long position = e.offset;
+            private final long end = e.offset + e.stored;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+                if (n < 0) {
+                    throw new IOException("Truncated backup!");
+                }
+                position += n;
+                return n;
+            }
+        });
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Truncated backup!");
+            }
+        }
+    }
+
+    static class Writer implements Closeable {
+
+        private final CountingOutputStream out;
+        private final List<Entry> entries = new ArrayList<>();
+
+        Writer(OutputStream out) {
+            this.out = new CountingOutputStream(out);
+        }
+
+        public Entry add(String name, String sha, InputStream content) throws IOException {
+            long offset = out.getByteCount();
+            long raw;
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DeflaterOutputStream zOut = new DeflaterOutputStream(new CloseShieldOutputStream(out), deflater)) {
+                raw = IOUtils.copyLarge(content, zOut);
+            } finally {
+                deflater.end();
+            }
+            Entry e = new Entry(name, sha, "", offset, (int) (out.getByteCount() - offset), (int) raw);
+            entries.add(e);
+            return e;
+        }
+
+        /**
+         * Adds the remaining bytes of {@code content}, typically a mapped file, without moving its position.
+         */
+        public Entry add(String name, String sha, ByteBuffer content) throws IOException {
+            ByteBuffer buf = content.duplicate();
+            return add(name, sha, new InputStream() {
+                @Override
+                public int read() {
+                    return buf.hasRemaining() ? buf.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!buf.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, buf.remaining());
+                    buf.get(b, off, n);
+                    return n;
+                }
+            });
+        }
+
+        /**
+         * Adds the content of {@code e} as stored in another container, without inflating and deflating it again.
+         *
+         * @param ch channel of the container holding {@code e}
+         */
+        public Entry addStored(String name, FileChannel ch, Entry e) throws IOException {
+            long offset = out.getByteCount();
+            copy(ch, e.offset, e.stored);
+            Entry copied = new Entry(name, e.sha, "", offset, e.stored, e.raw);
+            entries.add(copied);
+            return copied;
+        }
+
+        /**
+         * Copies the stored contents of another container as they are, so its entries keep their offsets
+         * and can be added with {@link #addReference}. Must come before any other entry.
+         *
+         * @param index entries of the container read from {@code ch}
+         */
+        public void copyContents(FileChannel ch, List<Entry> index) throws IOException {
+            if (out.getByteCount() > 0) {
+                throw new IllegalStateException("Contents must be copied first");
+            }
+            long end = 0;
+            for (Entry e : index) {
+                if (e.container.isEmpty()) {
+                    end = Math.max(end, e.offset + e.stored);
+                }
+            }
+            copy(ch, 0, end);
+        }
+
+        private void copy(FileChannel ch, long position, long length) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, 64 * 1024));
+            for (long done = 0; done < length; done += buf.limit()) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), length - done));
+                readFully(ch, buf, position + done);
+                out.write(buf.array(), 0, buf.limit());
+            }
+        }
+
+        public void addReference(Entry e) {
+            entries.add(e);
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DataOutputStream indexOut = new DataOutputStream(new DeflaterOutputStream(index, deflater))) {
+                indexOut.writeInt(entries.size());
+                for (Entry e : entries) {
+                    indexOut.writeUTF(e.name);
+                    indexOut.writeUTF(e.sha);
+                    indexOut.writeUTF(e.container);
+                    indexOut.writeLong(e.offset);
+                    indexOut.writeInt(e.stored);
+                    indexOut.writeInt(e.raw);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            try (DataOutputStream dataOut = new DataOutputStream(out)) {
+                long indexOffset = out.getByteCount();
+                index.writeTo(dataOut);
+                dataOut.writeLong(indexOffset);
+                dataOut.writeInt(index.size());
+                dataOut.write(MAGIC);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cc.adward.de1;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Children of a directory by name, listed with a single provider query and kept up to date
+ * as files are created through it. {@link StorageFile#findFile(String)} may list every child
+ * on each call, so writing many files with it is quadratic in provider round trips.
+ * An index is meant to live for one batch of writes; files created elsewhere meanwhile are not seen.
+ */
+class DirectoryIndex {
+
+    private final StorageFile dir;
+    private Map<String, StorageFile> children; // {name : file}
+
+    DirectoryIndex(StorageFile dir) {
+        this.dir = dir;
+    }
+
+    private Map<String, StorageFile> children() {
+        if (children == null) {
+            children = new HashMap<>();
+            for (StorageFile f : dir.listFiles()) {
+                children.put(f.getName(), f);
+            }
+        }
+        return children;
+    }
+
+    public synchronized StorageFile find(String name) {
+        return children().get(name);
+    }
+
+    public synchronized StorageFile findOrCreate(String mimeType, String name) throws IOException {
+        StorageFile f = children().get(name);
+        if (f == null) {
+            f = dir.createFile(mimeType, name);
+            if (f == null) {
+                throw new IOException("Cannot create " + name);
+            }
+            children.put(name, f);
+        }
+        return f;
+    }
+}
@@ -0,0 +1,286 @@
+package cc.adward.de1;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backs up or restores many DE1 installation directories in one run, e.g. the folders of a fleet
+ * of tablets synced to a workstation. A few directories are worked on at a time, each with its own
+ * small pool of writers, so the total number of files in flight stays bounded.
+ */
+class FleetTool {
+
+    private static final String USAGE = String.join("\n",
+            "usage: FleetTool [-j directories_in_parallel] [-w writers_per_directory] [-l library] [-f directory_list]",
+            "                 backup | restore-tag TAG | restore-backup latest|BACKUP_NAME | delete-backup BACKUP_NAME",
+            "                 [installation_dir...]",
+            "       FleetTool [-l library] history FILE_NAME");
+
+    enum Command {
+        BACKUP, RESTORE_TAG, RESTORE_BACKUP, DELETE_BACKUP, HISTORY
+    }
+
+    /**
+     * What happened to one installation directory.
+     */
+    static class Outcome {
+        Path dir;
+        int profiles;
+        RestoreEngine.Result restored; // restores only
+        String deleted; // deletions only
+        long elapsedMillis;
+        String error;
+
+        @Override
+        public String toString() {
+            String result = error != null ? "FAILED: " + error
+                    : restored != null ? restored.toString()
+                    : deleted != null ? String.format("%s deleted, %d profiles", deleted, profiles)
+                    : String.format("%d profiles backed up", profiles);
+            return String.format("%s: %s in %.1fs", dir, result, elapsedMillis / 1000.0);
+        }
+    }
+
+    private Command command;
+    private String argument; // tag, backup name or profile file name
+    private int parallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private int writers = RestoreEngine.DEFAULT_WORKERS;
+    private String libraryPath; // the working directory's library if null
+    private final List<Path> dirs = new ArrayList<>();
+
+    private ProfileLibrary lib;
+    private Tag tag;
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public static void main(String[] args) throws IOException, InterruptedException {
+        FleetTool tool = parse(args);
+        if (tool == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(tool.run() ? 0 : 1);
+    }
+
+    /**
+     * @return null if {@code args} make no sense
+     */
+    static FleetTool parse(String[] args) throws IOException {
+        FleetTool t = new FleetTool();
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            switch (args[i]) {
+                case "-j":
+                    t.parallelism = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-w":
+                    t.writers = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-l":
+                    t.libraryPath = args[i + 1];
+                    break;
+                case "-f":
+                    for (String line : Files.readAllLines(Paths.get(args[i + 1]))) {
+                        if (!line.trim().isEmpty()) {
+                            t.dirs.add(Paths.get(line.trim()));
+                        }
+                    }
+                    break;
+                default:
+                    return null;
+            }
+        }
+        if (i >= args.length || t.parallelism < 1 || t.writers < 1) {
+            return null;
+        }
+        try {
+            t.command = Command.valueOf(args[i++].toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (t.command != Command.BACKUP) {
+            if (i >= args.length) {
+                return null;
+            }
+            t.argument = args[i++];
+        }
+        for (; i < args.length; ++i) {
+            t.dirs.add(Paths.get(args[i]));
+        }
+        if (t.command == Command.HISTORY) {
+            return t.dirs.isEmpty() ? t : null; // reads the library only
+        }
+        return t.dirs.isEmpty() ? null : t;
+    }
+
+    /**
+     * @return true if every directory succeeded
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean run() throws IOException, InterruptedException {
+        if (command == Command.HISTORY) {
+            return printHistory();
+        }
+        if (command == Command.RESTORE_TAG) {
+            lib = ProfileLibrary.load(libraryPath);
+            for (Tag t : lib.tagsAsList()) {
+                if (t.getName().equals(argument)) {
+                    tag = t;
+                }
+            }
+            if (tag == null) {
+                System.err.println("No such tag: " + argument);
+                return false;
+            }
+        }
+
+        long started = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        List<Future<Outcome>> futures = new ArrayList<>();
+        for (Path dir : dirs) {
+            futures.add(pool.submit(() -> process(dir)));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        int profiles = 0;
+        long bytes = 0;
+        for (Future<Outcome> f : futures) {
+            Outcome o;
+            try {
+                o = f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            System.out.println(o);
+            if (o.error != null) {
+                ++failed;
+                continue;
+            }
+            profiles += o.profiles;
+            if (o.restored != null) {
+                bytes += o.restored.bytes;
+                failed += o.restored.failed > 0 ? 1 : 0;
+            }
+        }
+        double seconds = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), 1) / 1000.0;
+        System.out.println(String.format("%d directories (%d failed), %d profiles, %d KB in %.1fs: %.1f directories/s, %.1f profiles/s",
+                dirs.size(), failed, profiles, bytes / 1024, seconds, dirs.size() / seconds, profiles / seconds));
+        return failed == 0;
+    }
+
+    /**
+     * Prints every change of a profile file with its line diff.
+     *
+     * @return false if no tag ever held the file
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private boolean printHistory() throws IOException {
+        lib = ProfileLibrary.load(libraryPath);
+        List<ProfileHistory.Version> versions = lib.getHistory().get(argument);
+        if (versions.isEmpty()) {
+            System.err.println("No such profile: " + argument);
+            return false;
+        }
+        String previous = null;
+        for (ProfileHistory.Version v : versions) {
+            System.out.println(String.format("%s %s", new Date(v.getTimestamp()), v));
+            for (ProfileDiff.Line line : lib.diff(previous, v.getSha())) {
+                if (line.getOp() != ProfileDiff.Op.SAME) {
+                    System.out.println(line);
+                }
+            }
+            previous = v.getSha();
+        }
+        return true;
+    }
+
+    private Outcome process(Path dir) {
+        Outcome o = new Outcome();
+        o.dir = dir;
+        long started = System.nanoTime();
+        try {
+            StorageFile installation = new NioStorageFile(dir);
+            StorageFile profileDir = installation.findFile(MainActivity.PROFILE_DIR_NAME);
+            if (profileDir == null || installation.findFile("version.tcl") == null) {
+                throw new IOException("not a DE1 installation");
+            }
+            BackupArchive archive = new BackupArchive(installation);
+            switch (command) {
+                case BACKUP:
+                    Backup b = archive.newBackup(profileDir);
+                    if (b == null) {
+                        throw new IOException("backup not written");
+                    }
+                    o.profiles = b.getProfileCount();
+                    break;
+                case RESTORE_TAG:
+                    o.restored = restoreTag(profileDir);
+                    o.profiles = o.restored.total;
+                    break;
+                case RESTORE_BACKUP:
+                    o.restored = restoreBackup(archive, profileDir);
+                    o.profiles = o.restored.total;
+                    break;
+                case DELETE_BACKUP:
+                    Backup deleted = findBackup(archive);
+                    if (!archive.deleteBackup(deleted)) {
+                        throw new IOException("backup not deleted");
+                    }
+                    o.deleted = deleted.getName();
+                    o.profiles = deleted.getProfileCount();
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            o.error = e.getMessage();
+        }
+        o.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        return o;
+    }
+
+    private RestoreEngine.Result restoreTag(StorageFile profileDir) throws IOException {
+        RestoreEngine engine = new RestoreEngine(profileDir, tag.getProfiles().size(), writers, null);
+        try {
+            for (Profile p : tag.getProfiles()) {
+                engine.submit(p.getFileName(), p.getSha(), () -> lib.getInputStream(p));
+            }
+        } catch (IOException e) {
+            engine.cancel();
+            engine.finish();
+            throw e;
+        }
+        return engine.finish();
+    }
+
+    private Backup findBackup(BackupArchive archive) throws IOException {
+        Backup chosen = null;
+        for (Backup b : archive.listBackups()) {
+            if (b.getName().equals(argument) || argument.equals("latest")) {
+                chosen = b; // oldest first, so the last one is the latest
+            }
+        }
+        if (chosen == null) {
+            throw new IOException("no backup " + argument);
+        }
+        return chosen;
+    }
+
+    private RestoreEngine.Result restoreBackup(BackupArchive archive, StorageFile profileDir) throws IOException {
+        Backup chosen = findBackup(archive);
+        RestoreEngine engine = new RestoreEngine(profileDir, chosen.getProfileCount(), writers, null);
+        archive.restoreFrom(chosen, engine, null);
+        return engine.finish();
+    }
+}
@@ -0,0 +1,66 @@
+package cc.adward.de1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Git object ids of file contents, as reported by {@link Profile#getSha()}.
+ */
+class GitBlob {
+
+    private GitBlob() {
+        // intentionally empty
+    }
+
+    static MessageDigest newDigest(long length) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(("blob " + length + "\0").getBytes(StandardCharsets.US_ASCII));
+            return md;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Hashes {@code length} bytes of a stream without buffering them.
+     *
+     * @return null if the stream turned out to have a different length
+     */
+    public static String sha(InputStream in, long length) throws IOException {
+        MessageDigest md = newDigest(length);
+        byte[] buf = new byte[8192];
+        long total = 0;
+        for (int n; (n = in.read(buf)) != -1; total += n) {
+            md.update(buf, 0, n);
+        }
+        return total == length ? toHex(md.digest()) : null;
+    }
+
+    public static String sha(byte[] content) {
+        MessageDigest md = newDigest(content.length);
+        md.update(content);
+        return toHex(md.digest());
+    }
+
+    /**
+     * Hashes the remaining bytes of {@code content}, typically a mapped file, without moving its position.
+     */
+    public static String sha(ByteBuffer content) {
+        MessageDigest md = newDigest(content.remaining());
+        md.update(content.duplicate());
+        return toHex(md.digest());
+    }
+}
@@ -0,0 +1,93 @@
+package cc.adward.de1;
+
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.HttpException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Runs GitHub api calls within the core rate limit.
+ * Calls go through unthrottled while the quota is healthy, get spread over the time left
+ * until the reset once it runs low, and wait for the reset when only the reserve is left.
+ * Rate-limited and transient server failures are retried with exponential backoff.
+ */
+class GitHubScheduler {
+
+    public static final int RESERVE = 20; // calls kept for whatever runs after us
+    public static final double PACING_THRESHOLD = 0.2; // pace below this share of the limit
+    public static final int MAX_RETRIES = 5;
+
+    private static final Logger logger = Logger.getGlobal();
+    private static final long BASE_BACKOFF_MS = 2000;
+
+    interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private final GitHub gh;
+    private final Random jitter = new Random();
+    private long calls;
+
+    public GitHubScheduler(GitHub gh) {
+        this.gh = gh;
+    }
+
+    public <T> T call(Call<T> c) throws IOException {
+        for (int attempt = 0; ; ++attempt) {
+            pace();
+            try {
+                return c.call();
+            } catch (HttpException e) {
+                if (!isRetryable(e) || attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                long wait = (BASE_BACKOFF_MS << attempt) + jitter.nextInt((int) BASE_BACKOFF_MS);
+                logger.warning(String.format("github api %d, retrying in %dms: %s", e.getResponseCode(), wait, e.getUrl()));
+                sleep(wait);
+            }
+        }
+    }
+
+    private static boolean isRetryable(HttpException e) {
+        int code = e.getResponseCode();
+        return code == 403 || code == 429 || code == 502 || code == 503;
+    }
+
+    private void pace() throws IOException {
+        long wait;
+        synchronized (this) {
+            ++calls;
+            GHRateLimit limit = gh.lastRateLimit();
+            if (limit == null) {
+                return;
+            }
+            GHRateLimit.Record core = limit.getCore();
+            long untilReset = Math.max(0, core.getResetDate().getTime() - System.currentTimeMillis());
+            int remaining = core.getRemaining();
+            if (remaining <= RESERVE) {
+                wait = untilReset + 1000;
+                logger.warning(String.format("github quota exhausted after %d calls, waiting %ds for reset", calls, wait / 1000));
+            } else if (remaining < core.getLimit() * PACING_THRESHOLD) {
+                wait = untilReset / (remaining - RESERVE);
+            } else {
+                wait = 0;
+            }
+        }
+        if (wait > 0) {
+            sleep(wait);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("github api call interrupted");
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package cc.adward.de1;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.HttpException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpStatus;
+import cz.msebera.android.httpclient.client.HttpClient;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+/**
+ * Persistent cache of GET responses, revalidated with If-None-Match / If-Modified-Since.
+ * A 304 is answered from disk without reading the cached body until it is asked for.
+ */
+class HttpCache {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    static class Entry {
+        @JsonProperty
+        String url;
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String etag;
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String lastModified;
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String link; // pagination of github api listings
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String note; // whatever the caller derived from the body last time
+    }
+
+    public class Response {
+        private final Entry entry;
+        private final boolean notModified;
+
+        private Response(Entry entry, boolean notModified) {
+            this.entry = entry;
+            this.notModified = notModified;
+        }
+
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        public String getLink() {
+            return entry.link;
+        }
+
+        public String getNote() {
+            return entry.note;
+        }
+
+        public void setNote(String note) throws IOException {
+            entry.note = note;
+            writeEntry(entry);
+        }
+
+        public byte[] body() throws IOException {
+            try (InputStream in = new FileInputStream(bodyFile(entry.url))) {
+                return IOUtils.toByteArray(in);
+            }
+        }
+    }
+
+    private final File dir;
+    private final HttpClient http;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public HttpCache(File dir, HttpClient http) {
+        this.dir = dir;
+        this.http = http;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            logger.warning("Cannot create http cache at " + dir);
+        }
+    }
+
+    public Response get(String url) throws IOException {
+        return get(url, Collections.emptyMap());
+    }
+
+    /**
+     * @return fresh or revalidated response
+     * @throws HttpException for any other status, so that callers can tell rate limits from failures
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        Entry cached = readEntry(url);
+        HttpGet req = new HttpGet(url);
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            req.setHeader(h.getKey(), h.getValue());
+        }
+        if (cached != null) {
+            if (cached.etag != null) {
+                req.setHeader("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                req.setHeader("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        HttpResponse res = http.execute(req);
+        int status = res.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+            EntityUtils.consume(res.getEntity());
+            return new Response(cached, true);
+        }
+        if (status != HttpStatus.SC_OK) {
+            EntityUtils.consume(res.getEntity());
+            String reason = res.getStatusLine().getReasonPhrase();
+            throw new HttpException(String.format("%s: %s", url, reason), status, reason, url);
+        }
+
+        Entry fresh = new Entry();
+        fresh.url = url;
+        fresh.etag = headerValue(res, "ETag");
+        fresh.lastModified = headerValue(res, "Last-Modified");
+        fresh.link = headerValue(res, "Link");
+        // a partially written body must never be revalidated, so swap it in only once complete
+        File tmp = new File(dir, key(url) + ".tmp");
+        try (InputStream in = res.getEntity().getContent();
+             OutputStream out = new FileOutputStream(tmp)) {
+            IOUtils.copy(in, out);
+        }
+        entryFile(url).delete();
+        if (!tmp.renameTo(bodyFile(url))) {
+            throw new IOException("Cannot store cached response of " + url);
+        }
+        writeEntry(fresh);
+        return new Response(fresh, false);
+    }
+
+    private static String headerValue(HttpResponse res, String name) {
+        Header h = res.getFirstHeader(name);
+        return h == null ? null : h.getValue();
+    }
+
+    private Entry readEntry(String url) {
+        File f = entryFile(url);
+        if (!f.isFile() || !bodyFile(url).isFile()) {
+            return null;
+        }
+        try {
+            Entry e = mapper.readValue(f, Entry.class);
+            return url.equals(e.url) ? e : null;
+        } catch (IOException e) {
+            logger.warning("Discarding unreadable http cache entry " + f);
+            return null;
+        }
+    }
+
+    private void writeEntry(Entry e) throws IOException {
+        mapper.writeValue(entryFile(e.url), e);
+    }
+
+    private File entryFile(String url) {
+        return new File(dir, key(url) + ".json");
+    }
+
+    private File bodyFile(String url) {
+        return new File(dir, key(url) + ".body");
+    }
+
+    private static String key(String url) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
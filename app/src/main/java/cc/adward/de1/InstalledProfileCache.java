@@ -0,0 +1,174 @@
+package cc.adward.de1;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.support.v4.provider.DocumentFile;
+import android.util.Log;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolved names and content hashes of the installed profiles, persisted between runs.
+ * A refresh lists the profile directory with a single query and reads only the files
+ * whose size or modification time changed since they were last resolved.
+ */
+class InstalledProfileCache {
+
+    public static final String CACHE_FILE = "installed_profiles.json";
+
+    private static final String[] CHILD_COLUMNS = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED};
+
+    static class Entry {
+        @JsonProperty
+        String documentId;
+        @JsonProperty
+        String fileName;
+        @JsonProperty
+        long size;
+        @JsonProperty
+        long lastModified;
+        @JsonProperty
+        String profileName;
+        @JsonProperty
+        String sha; // git blob sha of the content
+    }
+
+    /**
+     * What a refresh found different from the entries before it.
+     */
+    static class Changes {
+        final List<Entry> added = new ArrayList<>();
+        final List<Entry> removed = new ArrayList<>();
+        final List<Entry> modified = new ArrayList<>(); // new entries of files already known
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d added, %d removed, %d modified", added.size(), removed.size(), modified.size());
+        }
+    }
+
+    private final File file;
+    private volatile Map<String, Entry> entries = new HashMap<>(); // {document_id : entry}, replaced as a whole
+
+    public InstalledProfileCache(File cacheDir) {
+        this.file = new File(cacheDir, CACHE_FILE);
+        if (file.isFile()) {
+            try {
+                entries = new ObjectMapper().readValue(file, new TypeReference<HashMap<String, Entry>>() {
+                });
+            } catch (IOException e) {
+                Log.w("listing-profile", "Discarding unreadable installed profile cache", e);
+            }
+        }
+    }
+
+    /**
+     * @return entries as of the last refresh, sorted by file name; never waits for a refresh in progress
+     */
+    public List<Entry> getEntries() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort((lhs, rhs) -> lhs.fileName.compareTo(rhs.fileName));
+        return sorted;
+    }
+
+    /**
+     * Brings the entries in line with {@code profileDir}. Call off the main thread.
+     * Unchanged directories cost one listing query and no reads.
+     *
+     * @return the entries that changed
+     */
+    public synchronized Changes refresh(ContentResolver resolver, DocumentFile profileDir) throws IOException {
+        Map<String, Entry> cached = entries;
+        Map<String, Entry> current = new HashMap<>();
+        Changes changes = new Changes();
+        Uri tree = profileDir.getUri();
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(tree, DocumentsContract.getDocumentId(tree));
+        try (Cursor c = resolver.query(children, CHILD_COLUMNS, null, null, null)) {
+            if (c == null) {
+                throw new IOException("Cannot list " + profileDir.getName());
+            }
+            while (c.moveToNext()) {
+                if (DocumentsContract.Document.MIME_TYPE_DIR.equals(c.getString(2))) {
+                    continue;
+                }
+                Entry e = new Entry();
+                e.documentId = c.getString(0);
+                e.fileName = c.getString(1);
+                e.size = c.getLong(3);
+                e.lastModified = c.getLong(4);
+                Entry known = cached.get(e.documentId);
+                if (known != null && known.size == e.size && known.lastModified == e.lastModified
+                        && known.fileName.equals(e.fileName)) {
+                    current.put(e.documentId, known);
+                    continue;
+                }
+                try {
+                    resolve(resolver, DocumentsContract.buildDocumentUriUsingTree(tree, e.documentId), e);
+                    current.put(e.documentId, e);
+                    (known == null ? changes.added : changes.modified).add(e);
+                } catch (IOException x) {
+                    Log.w("listing-profile", x);
+                }
+            }
+        }
+
+        for (Entry known : cached.values()) {
+            if (!current.containsKey(known.documentId)) {
+                changes.removed.add(known);
+            }
+        }
+        entries = current;
+        if (!changes.isEmpty()) {
+            save(current);
+        }
+        Log.i("listing-profile", String.format("%d profiles, %s", current.size(), changes));
+        return changes;
+    }
+
+    private static void resolve(ContentResolver resolver, Uri uri, Entry e) throws IOException {
+        byte[] content;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + e.fileName);
+            }
+            content = IOUtils.toByteArray(in);
+        }
+        e.profileName = Profile.resolveProfileName(content);
+        e.sha = GitBlob.sha(content);
+    }
+
+    private void save(Map<String, Entry> entries) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            new ObjectMapper().writeValue(tmp, entries);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            Log.w("listing-profile", e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cc.adward.de1;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.support.v4.provider.DocumentFile;
+import android.util.Log;
+
+/**
+ * Calls back when the provider reports a change under the profile directory.
+ * Changes usually come in bursts (a restore writes dozens of files), so callbacks are
+ * coalesced until the directory has been quiet for {@link #SETTLE_MILLIS}.
+ * Providers are not required to notify, and nothing is reported while unregistered,
+ * so a refresh on resume is still needed; it costs one listing query when nothing changed.
+ */
+class InstalledProfileWatcher extends ContentObserver {
+
+    public static final long SETTLE_MILLIS = 500;
+
+    private final ContentResolver resolver;
+    private final Runnable onChange;
+    private final Handler handler;
+    private Uri observed;
+
+    /**
+     * @param onChange run on the main thread
+     */
+    public InstalledProfileWatcher(ContentResolver resolver, Runnable onChange) {
+        this(resolver, onChange, new Handler(Looper.getMainLooper()));
+    }
+
+    private InstalledProfileWatcher(ContentResolver resolver, Runnable onChange, Handler handler) {
+        super(handler);
+        this.resolver = resolver;
+        this.onChange = onChange;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts watching {@code profileDir}, replacing the directory watched before.
+     */
+    public void register(DocumentFile profileDir) {
+        unregister();
+        Uri tree = profileDir.getUri();
+        observed = DocumentsContract.buildChildDocumentsUriUsingTree(tree, DocumentsContract.getDocumentId(tree));
+        try {
+            resolver.registerContentObserver(observed, true, this);
+        } catch (SecurityException e) {
+            Log.w("listing-profile", "Profile directory cannot be observed", e);
+            observed = null;
+        }
+    }
+
+    public void unregister() {
+        handler.removeCallbacks(onChange);
+        if (observed != null) {
+            resolver.unregisterContentObserver(this);
+            observed = null;
+        }
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        handler.removeCallbacks(onChange);
+        handler.postDelayed(onChange, SETTLE_MILLIS);
+    }
+}
@@ -0,0 +1,100 @@
+package cc.adward.de1;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Profile contents of a gzipped json library that were skipped while loading its metadata.
+ * Nothing is decoded until a content is asked for; then all of them are, in one pass over the source,
+ * since reaching any one blob means inflating everything before it.
+ */
+class LegacyContent {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final ProfileLibrary.LibrarySource source;
+    private final Set<String> shas;
+    private Map<String, byte[]> decoded; // every content, once one was read
+
+    LegacyContent(ProfileLibrary.LibrarySource source, Set<String> shas) {
+        this.source = source;
+        this.shas = shas;
+    }
+
+    /**
+     * Records the key of every value of the {@code contentCache} object the parser is positioned at,
+     * without decoding them.
+     */
+    static Set<String> skipContentCache(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("contentCache is not an object!");
+        }
+        Set<String> shas = new HashSet<>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            shas.add(p.getCurrentName());
+            p.nextToken();
+            p.skipChildren(); // no-op for the string itself, which is skipped undecoded
+        }
+        return shas;
+    }
+
+    public Set<String> shas() {
+        return shas;
+    }
+
+    public boolean contains(String sha) {
+        return shas.contains(sha);
+    }
+
+    public byte[] read(String sha) throws IOException {
+        if (!shas.contains(sha)) {
+            return null;
+        }
+        byte[] content = readAll().get(sha);
+        if (content == null) {
+            throw new IOException("Corrupted profile content: " + sha);
+        }
+        return content;
+    }
+
+    /**
+     * Decodes every blob in a single pass over the source, the first time only.
+     *
+     * @return {profile_sha : content}, shared by every caller
+     */
+    public synchronized Map<String, byte[]> readAll() throws IOException {
+        if (decoded != null) {
+            return decoded;
+        }
+        Map<String, byte[]> all = new HashMap<>();
+        try (JsonParser p = jsonFactory.createParser(new GZIPInputStream(source.open()))) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a profile library!");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if (!field.equals("contentCache")) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String sha = p.getCurrentName();
+                    p.nextToken();
+                    all.put(sha, p.getBinaryValue());
+                }
+            }
+        }
+        decoded = Collections.unmodifiableMap(all);
+        return decoded;
+    }
+}
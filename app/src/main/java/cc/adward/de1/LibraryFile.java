@@ -0,0 +1,334 @@
+package cc.adward.de1;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Indexed binary profile library.
+ * <pre>
+ * header   : "DE1L" | format(u16) | reserved(u16) | metadata size(i32) | entries(i32) | content size(i64)
+ * metadata : deflated json of version, tags and trees
+ * index    : entries x (sha(20) | offset(i64) | stored size(i32) | raw size(i32)), sorted by sha
+ * content  : individually deflated blobs
+ * </pre>
+ * Opening only inflates the metadata; blobs are looked up in the index and inflated on demand,
+ * so the buffer can be a read-only mapping of the library file.
+ * Deltas share the format, and a library journal is a sequence of them written back to back.
+ */
+class LibraryFile {
+
+    public static final int FORMAT = 1;
+
+    private static final byte[] MAGIC = {'D', 'E', '1', 'L'};
+    private static final int HEADER_SIZE = 24;
+    private static final int SHA_SIZE = 20;
+    private static final int ENTRY_SIZE = SHA_SIZE + 8 + 4 + 4;
+
+    static class Metadata {
+        @JsonProperty
+        Long version;
+        @JsonProperty
+        Map<String, Tag> tags; // {tag_sha : tag}
+        @JsonProperty
+        Map<String, List<Profile>> trees; // {profiles_tree_sha : profiles}
+        @JsonProperty
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        Long baseVersion; // set for deltas only
+
+        Metadata() {
+            // for jackson
+        }
+
+        Metadata(Long version, Map<String, Tag> tags, Map<String, List<Profile>> trees) {
+            this.version = version;
+            this.tags = tags;
+            this.trees = trees;
+        }
+    }
+
+    private final Metadata metadata;
+    private final ByteBuffer index;
+    private final ByteBuffer content;
+    private final int entries;
+    private final long length;
+
+    private LibraryFile(Metadata metadata, ByteBuffer index, ByteBuffer content, int entries, long length) {
+        this.metadata = metadata;
+        this.index = index;
+        this.content = content;
+        this.entries = entries;
+        this.length = length;
+    }
+
+    public static boolean matches(byte[] head) {
+        if (head.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (head[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static LibraryFile open(ByteBuffer buf) throws IOException {
+        buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buf.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated profile library!");
+        }
+        byte[] head = new byte[MAGIC.length];
+        buf.get(head);
+        if (!matches(head)) {
+            throw new IOException("Not a profile library!");
+        }
+        int format = buf.getShort() & 0xffff;
+        if (format != FORMAT) {
+            throw new IOException("Unsupported profile library format: " + format);
+        }
+        buf.getShort(); // reserved
+        int metadataSize = buf.getInt();
+        int entries = buf.getInt();
+        long contentSize = buf.getLong();
+        if (metadataSize < 0 || entries < 0 || contentSize < 0
+                || buf.remaining() < metadataSize + (long) entries * ENTRY_SIZE + contentSize) {
+            throw new IOException("Truncated profile library!");
+        }
+
+        byte[] packedMetadata = new byte[metadataSize];
+        buf.get(packedMetadata);
+        Metadata metadata = new ObjectMapper().readValue(inflate(packedMetadata, 0, metadataSize), Metadata.class);
+        return new LibraryFile(metadata,
+                section(buf, buf.position(), entries * ENTRY_SIZE),
+                section(buf, buf.position() + entries * ENTRY_SIZE, (int) contentSize),
+                entries,
+                HEADER_SIZE + metadataSize + (long) entries * ENTRY_SIZE + contentSize);
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * @return bytes taken by this library in the buffer it was opened from
+     */
+    public long length() {
+        return length;
+    }
+
+    public boolean contains(String sha) {
+        return find(sha) >= 0;
+    }
+
+    public byte[] read(String sha) throws IOException {
+        int i = find(sha);
+        if (i < 0) {
+            return null;
+        }
+        int raw = index.getInt(i * ENTRY_SIZE + SHA_SIZE + 12);
+        byte[] packed = packedAt(i);
+        byte[] out = inflate(packed, 0, packed.length);
+        if (out.length != raw) {
+            throw new IOException("Corrupted profile content: " + sha);
+        }
+        return out;
+    }
+
+    /**
+     * @param fresh    blobs held in memory, written deflated
+     * @param previous libraries whose blobs are carried over as stored
+     */
+    public static void write(OutputStream out, Metadata metadata, Map<String, byte[]> fresh,
+                             List<LibraryFile> previous) throws IOException {
+        TreeMap<String, LibraryFile> shas = new TreeMap<>(); // {sha : library holding it, null if fresh}
+        for (LibraryFile prev : previous) {
+            for (int i = 0; i < prev.entries; ++i) {
+                shas.put(prev.shaAt(i), prev);
+            }
+        }
+        for (String sha : fresh.keySet()) {
+            shas.put(sha, null);
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream(shas.size() * ENTRY_SIZE);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        for (Map.Entry<String, LibraryFile> e : shas.entrySet()) {
+            String sha = e.getKey();
+            LibraryFile prev = e.getValue();
+            byte[] packed;
+            int raw;
+            if (prev == null) {
+                raw = fresh.get(sha).length;
+                packed = deflate(fresh.get(sha));
+            } else {
+                int i = prev.find(sha);
+                raw = prev.index.getInt(i * ENTRY_SIZE + SHA_SIZE + 12);
+                packed = prev.packedAt(i);
+            }
+            indexOut.write(decodeSha(sha));
+            indexOut.writeLong(content.size());
+            indexOut.writeInt(packed.length);
+            indexOut.writeInt(raw);
+            content.write(packed);
+        }
+
+        byte[] packedMetadata = deflate(new ObjectMapper().writeValueAsBytes(metadata));
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.write(MAGIC);
+        dataOut.writeShort(FORMAT);
+        dataOut.writeShort(0);
+        dataOut.writeInt(packedMetadata.length);
+        dataOut.writeInt(shas.size());
+        dataOut.writeLong(content.size());
+        dataOut.write(packedMetadata);
+        index.writeTo(dataOut);
+        content.writeTo(dataOut);
+        dataOut.flush();
+    }
+
+    /**
+     * @return stored bytes of entry {@code i}
+     * @throws IOException if the index points outside the content, as it does in a corrupted or truncated library
+     */
+    private byte[] packedAt(int i) throws IOException {
+        int entry = i * ENTRY_SIZE;
+        long offset = index.getLong(entry + SHA_SIZE);
+        int stored = index.getInt(entry + SHA_SIZE + 8);
+        if (offset < 0 || stored < 0 || offset + stored > content.limit()) {
+            throw new IOException(String.format("Corrupted profile library index: %s at %d+%d of %d",
+                    shaAt(i), offset, stored, content.limit()));
+        }
+        byte[] packed = new byte[stored];
+        ByteBuffer blob = content.duplicate();
+        blob.position((int) offset);
+        blob.get(packed);
+        return packed;
+    }
+
+    public List<String> shas() {
+        List<String> shas = new ArrayList<>(entries);
+        for (int i = 0; i < entries; ++i) {
+            shas.add(shaAt(i));
+        }
+        return shas;
+    }
+
+    private int find(String sha) {
+        byte[] key;
+        try {
+            key = decodeSha(sha);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = entries - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareAt(int i, byte[] key) {
+        int entry = i * ENTRY_SIZE;
+        for (int b = 0; b < SHA_SIZE; ++b) {
+            int cmp = Integer.compare(index.get(entry + b) & 0xff, key[b] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String shaAt(int i) {
+        StringBuilder sb = new StringBuilder(SHA_SIZE * 2);
+        int entry = i * ENTRY_SIZE;
+        for (int b = 0; b < SHA_SIZE; ++b) {
+            sb.append(String.format("%02x", index.get(entry + b) & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] decodeSha(String sha) {
+        if (sha == null || sha.length() != SHA_SIZE * 2) {
+            throw new IllegalArgumentException("Not a sha1: " + sha);
+        }
+        byte[] out = new byte[SHA_SIZE];
+        for (int i = 0; i < SHA_SIZE; ++i) {
+            int hi = Character.digit(sha.charAt(i * 2), 16);
+            int lo = Character.digit(sha.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Not a sha1: " + sha);
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    private static ByteBuffer section(ByteBuffer buf, int position, int size) {
+        ByteBuffer section = buf.duplicate();
+        section.position(position);
+        section.limit(position + size);
+        return section.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static byte[] deflate(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream zOut = new DeflaterOutputStream(out, deflater)) {
+            zOut.write(raw);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] packed, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate stream!");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package cc.adward.de1;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.client.HttpClient;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.impl.client.HttpClientBuilder;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+/**
+ * Profile library releases published as pre-releases tagged by library version.
+ * A release carries the full library as {@code profiles.de1lib} (or {@code profiles.json.gz} for older ones)
+ * and optionally deltas named {@code delta_<base>_<version>.de1lib}.
+ */
+class LibraryReleases {
+
+    public static final String RELEASES_URL = "https://api.github.com/repos/hsyhsw/de1-profile-restoration/releases";
+
+    private static final Logger logger = Logger.getGlobal();
+    private static final Pattern DELTA_NAME = Pattern.compile("delta_(\\d+)_(\\d+)\\.de1lib");
+
+    static class Release {
+        long version;
+        String fullUrl;
+        Map<Long, String> deltas = new HashMap<>(); // {base_version : download_url}
+    }
+
+    private final HttpClient http;
+    private final HttpCache cache;
+
+    public LibraryReleases(File cacheDir) {
+        this.http = HttpClientBuilder.create().build();
+        this.cache = new HttpCache(cacheDir, http);
+    }
+
+    public static String deltaFileName(long baseVersion, long version) {
+        return String.format("delta_%d_%d.de1lib", baseVersion, version);
+    }
+
+    static List<Release> parse(byte[] body) throws IOException, JSONException {
+        List<Release> releases = new ArrayList<>();
+        JSONArray rels = new JSONArray(new String(body, "UTF-8"));
+        for (int i = 0; i < rels.length(); ++i) {
+            JSONObject o = rels.getJSONObject(i);
+            if (!o.getBoolean("prerelease")) {
+                continue;
+            }
+            Release r = new Release();
+            r.version = Long.parseLong(o.getString("tag_name"));
+            JSONArray assets = o.getJSONArray("assets");
+            for (int j = 0; j < assets.length(); ++j) {
+                String name = assets.getJSONObject(j).getString("name");
+                String url = assets.getJSONObject(j).getString("browser_download_url");
+                Matcher m = DELTA_NAME.matcher(name);
+                if (m.matches() && Long.parseLong(m.group(2)) == r.version) {
+                    r.deltas.put(Long.parseLong(m.group(1)), url);
+                } else if (name.equals(ProfileLibrary.PROFILE_LIB_FILE)) {
+                    r.fullUrl = url;
+                } else if (name.equals(ProfileLibrary.LEGACY_PROFILE_LIB_FILE) && r.fullUrl == null) {
+                    r.fullUrl = url; // releases made before the indexed format
+                }
+            }
+            if (r.fullUrl != null) {
+                releases.add(r);
+            }
+        }
+        return releases;
+    }
+
+    /**
+     * @return delta download urls leading from {@code installedVersion} to {@code latest}, or null if there is no chain
+     */
+    static List<String> findDeltaChain(List<Release> releases, long installedVersion, Release latest) {
+        Map<Long, Release> byBase = new HashMap<>(); // {base_version : release reachable in one hop, farthest first}
+        for (Release r : releases) {
+            for (Long base : r.deltas.keySet()) {
+                Release known = byBase.get(base);
+                if (r.version > base && r.version <= latest.version && (known == null || r.version > known.version)) {
+                    byBase.put(base, r);
+                }
+            }
+        }
+
+        List<String> chain = new ArrayList<>();
+        long current = installedVersion;
+        while (current != latest.version) {
+            Release next = byBase.get(current);
+            if (next == null) {
+                return null;
+            }
+            chain.add(next.deltas.get(current));
+            current = next.version;
+        }
+        return chain;
+    }
+
+    /**
+     * Brings a copy of {@code installed} up to the latest release through deltas if possible,
+     * otherwise downloads the full latest library. {@code installed} itself is never modified.
+     *
+     * @return updated library, or null if {@code installed} is the latest
+     */
+    public ProfileLibrary fetchUpdate(ProfileLibrary installed) throws IOException, JSONException {
+        HttpCache.Response listing = cache.get(RELEASES_URL);
+        if (listing.isNotModified() && listing.getNote() != null
+                && installed.getVersion() >= Long.parseLong(listing.getNote())) {
+            // same releases as last time, and the latest of them is already installed
+            return null;
+        }
+
+        List<Release> releases = parse(listing.body());
+        Release latest = null;
+        for (Release r : releases) {
+            if (latest == null || r.version > latest.version) {
+                latest = r;
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+        listing.setNote(String.valueOf(latest.version));
+        if (latest.version <= installed.getVersion()) {
+            return null;
+        }
+
+        List<String> chain = findDeltaChain(releases, installed.getVersion(), latest);
+        if (chain != null) {
+            try {
+                // a chain failing halfway must not leave a half updated library behind
+                ProfileLibrary updated = installed.copy();
+                for (String url : chain) {
+                    byte[] delta = download(url);
+                    if (delta == null) {
+                        throw new IOException("Delta download failed: " + url);
+                    }
+                    logger.info(String.format("applying delta %s (%d bytes)", url, delta.length));
+                    updated.applyDelta(new ByteArrayInputStream(delta));
+                }
+                return updated;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Delta update failed, falling back to full download", e);
+            }
+        }
+
+        byte[] full = download(latest.fullUrl);
+        if (full == null) {
+            throw new IOException("Library download failed: " + latest.fullUrl);
+        }
+        logger.info(String.format("downloaded full library v%d (%d bytes)", latest.version, full.length));
+        return ProfileLibrary.loadMetadata(() -> new ByteArrayInputStream(full));
+    }
+
+    private byte[] download(String url) throws IOException {
+        HttpResponse res = http.execute(new HttpGet(url));
+        if (res.getStatusLine().getStatusCode() != 200) {
+            EntityUtils.consume(res.getEntity());
+            logger.warning(String.format("%s: %s", url, res.getStatusLine().getReasonPhrase()));
+            return null;
+        }
+        try (InputStream in = res.getEntity().getContent()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package cc.adward.de1;
 import android.app.ProgressDialog;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -26,22 +27,27 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.apache.commons.io.IOUtils;
 import org.json.JSONException;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class MainActivity extends AppCompatActivity
         implements View.OnClickListener, AdapterView.OnItemSelectedListener {
@@ -57,8 +63,11 @@ public class MainActivity extends AppCompatActivity
     private ContentResolver contentResolver;
     private DocumentFile de1Installation;
     private DocumentFile profileDir;
+    private StorageFile profileStorage; // profileDir, for backups and restores
 
-    private ProfileLibrary pl;
+    private ProfileLibrary pl; // only assigned on the main thread, background work reads a captured reference
+    private final Object libraryFiles = new Object(); // held while the installed library files are read or written
+    private ProfileLibrary onDisk; // the library last loaded from the installed files, guarded by libraryFiles
     private BackupArchive backupArchive;
 
     private TextView de1Path;
@@ -78,6 +87,8 @@ public class MainActivity extends AppCompatActivity
 
     private ListView installedProfileList;
     private List<Map<String, String>> installedProfiles; // (name, filename)
+    private InstalledProfileCache installedProfileCache;
+    private InstalledProfileWatcher installedProfileWatcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -106,6 +117,8 @@ public class MainActivity extends AppCompatActivity
         restoreFromBackupButton.setOnClickListener(this);
 
         // right: currently installed profiles
+        installedProfileCache = new InstalledProfileCache(getCacheDir());
+        installedProfileWatcher = new InstalledProfileWatcher(contentResolver, this::refreshInstalledProfiles);
         installedProfiles = new ArrayList<>();
         installedProfileList = findViewById(R.id.list_installed_profiles);
         installedProfileList.setAdapter(new SimpleAdapter(this, installedProfiles,
@@ -136,61 +149,168 @@ public class MainActivity extends AppCompatActivity
     }
 
     private ProfileLibrary loadStockProfileLibrary() throws IOException {
-        try (InputStream in = getResources().openRawResource(R.raw.profiles_json_gz)) {
+        try (InputStream in = getResources().openRawResource(R.raw.profiles_de1lib)) {
             return ProfileLibrary.load(in);
         }
     }
 
-    private DocumentFile installProfileLibrary(ProfileLibrary lib) throws IOException {
-        DocumentFile backupDir = backupArchive.getBackupDir();
-        DocumentFile installedLib = backupDir.findFile(ProfileLibrary.PROFILE_LIB_FILE);
-        if (installedLib == null) { // ensure installed profile library exists
-            installedLib = backupDir.createFile("application/profile_library", ProfileLibrary.PROFILE_LIB_FILE);
+    /**
+     * Callers hold {@link #libraryFiles}, as for every other operation on the installed library files.
+     */
+    private StorageFile installProfileLibrary(ProfileLibrary lib) throws IOException {
+        StorageFile backupDir = backupArchive.getBackupDir();
+        String tmpName = ProfileLibrary.PROFILE_LIB_FILE + ".tmp";
+        StorageFile tmp = backupDir.findFile(tmpName);
+        if (tmp != null) {
+            tmp.delete(); // left behind by an interrupted install
         }
-        try (OutputStream out = contentResolver.openOutputStream(installedLib.getUri(), "wt")) {
+        tmp = backupDir.createFile("application/profile_library", tmpName);
+        if (tmp == null) {
+            throw new IOException("Cannot create " + tmpName);
+        }
+        try (OutputStream out = tmp.openOutputStream(false)) {
             lib.save(out);
         }
-        return installedLib;
+        // never truncate the installed file, libraries in use map it; unlinked, it lives on until they are gone
+        StorageFile installedLib = backupDir.findFile(ProfileLibrary.PROFILE_LIB_FILE);
+        if (installedLib != null && !installedLib.delete()) {
+            throw new IOException("Cannot replace " + ProfileLibrary.PROFILE_LIB_FILE);
+        }
+        if (!tmp.renameTo(ProfileLibrary.PROFILE_LIB_FILE)) {
+            throw new IOException("Cannot install " + ProfileLibrary.PROFILE_LIB_FILE);
+        }
+        // the new snapshot already holds whatever the journal had
+        StorageFile journal = backupDir.findFile(ProfileLibrary.PROFILE_LIB_JOURNAL_FILE);
+        if (journal != null) {
+            journal.delete();
+        }
+        return tmp;
     }
 
-    private void initProfileLibrary() throws IOException {
-        DocumentFile backupDir = backupArchive.getBackupDir();
-        DocumentFile installedLib = backupDir.findFile(ProfileLibrary.PROFILE_LIB_FILE);
-        if (installedLib == null) { // ensure installed profile library exists
-            // copy app-distributed profile lib
-            installedLib = installProfileLibrary(loadStockProfileLibrary());
+    /**
+     * Appends the changes of the installed library {@code lib} to its journal instead of rewriting it.
+     */
+    private StorageFile journalProfileLibrary(ProfileLibrary lib) throws IOException {
+        StorageFile backupDir = backupArchive.getBackupDir();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        if (lib.saveJournal(buf)) {
+            StorageFile journal = backupDir.findFile(ProfileLibrary.PROFILE_LIB_JOURNAL_FILE);
+            if (journal == null) {
+                journal = backupDir.createFile("application/profile_library", ProfileLibrary.PROFILE_LIB_JOURNAL_FILE);
+            }
+            try (OutputStream out = journal.openOutputStream(true)) {
+                buf.writeTo(out);
+            }
+        }
+        return backupDir.findFile(ProfileLibrary.PROFILE_LIB_FILE);
+    }
+
+    private ProfileLibrary loadInstalledProfileLibrary(StorageFile installedLib) throws IOException {
+        // map the installed library and its journal; profile contents are only touched on restore
+        StorageFile journal = backupArchive.getBackupDir().findFile(ProfileLibrary.PROFILE_LIB_JOURNAL_FILE);
+        onDisk = ProfileLibrary.load(installedLib.map(), journal != null ? journal.map() : null);
+        return onDisk;
+    }
+
+    /**
+     * Folds a long journal into a new snapshot off the main thread, then switches to it on the main thread.
+     */
+    private void compactProfileLibrary() {
+        ProfileLibrary lib = pl;
+        if (lib == null || !lib.needsCompaction()) {
+            return;
         }
-        // load installed lib anyway...
-        try (InputStream in = contentResolver.openInputStream(installedLib.getUri())) {
-            pl = ProfileLibrary.load(in);
-            Log.i("profile-library", String.format("Profile library installed: v%d", pl.getVersion()));
+        AsyncTask.execute(() -> {
+            try {
+                ProfileLibrary compacted;
+                synchronized (libraryFiles) {
+                    if (onDisk != lib) {
+                        return; // an update was installed or journaled since lib was loaded
+                    }
+                    compacted = loadInstalledProfileLibrary(installProfileLibrary(lib));
+                }
+                Log.i("profile-library", String.format("Profile library journal compacted: v%d", compacted.getVersion()));
+                runOnUiThread(() -> {
+                    if (pl == lib) { // not replaced by an update meanwhile
+                        pl = compacted;
+                        refreshTagSpinner();
+                    }
+                });
+            } catch (IOException e) {
+                Log.w("profile-library", e);
+            }
+        });
+    }
+
+    private void migrateLegacyProfileLibrary(StorageFile backupDir) {
+        StorageFile legacyLib = backupDir.findFile(ProfileLibrary.LEGACY_PROFILE_LIB_FILE);
+        if (legacyLib == null) {
+            return;
+        }
+        try {
+            ProfileLibrary legacy = ProfileLibrary.loadMetadata(legacyLib::openInputStream);
+            installProfileLibrary(legacy);
+            legacyLib.delete();
+            Log.i("profile-library", String.format("Legacy profile library migrated: v%d", legacy.getVersion()));
         } catch (IOException e) {
             Log.w("profile-library", e);
         }
+    }
 
-        ProfileLibrary maybeNewer = loadStockProfileLibrary();
-        if (maybeNewer.getVersion() > pl.getVersion()) {
-            Log.i("profile-library", "Stock profile library is newer!");
-            installProfileLibrary(maybeNewer);
+    private void initProfileLibrary() throws IOException {
+        synchronized (libraryFiles) {
+            StorageFile backupDir = backupArchive.getBackupDir();
+            StorageFile installedLib = backupDir.findFile(ProfileLibrary.PROFILE_LIB_FILE);
+            if (installedLib == null) {
+                migrateLegacyProfileLibrary(backupDir);
+                installedLib = backupDir.findFile(ProfileLibrary.PROFILE_LIB_FILE);
+            }
+            if (installedLib == null) { // ensure installed profile library exists
+                // copy app-distributed profile lib
+                installedLib = installProfileLibrary(loadStockProfileLibrary());
+            }
+            // load installed lib anyway...
+            try {
+                pl = loadInstalledProfileLibrary(installedLib);
+                Log.i("profile-library", String.format("Profile library installed: v%d", pl.getVersion()));
+            } catch (IOException e) {
+                Log.w("profile-library", e);
+            }
+
+            ProfileLibrary maybeNewer = loadStockProfileLibrary();
+            if (pl == null || maybeNewer.getVersion() > pl.getVersion()) {
+                Log.i("profile-library", "Stock profile library is newer!");
+                pl = loadInstalledProfileLibrary(installProfileLibrary(maybeNewer));
+            }
         }
+        compactProfileLibrary();
     }
 
     private void updateProfileLibraryFromGithub() {
         StringBuilder toastMsg = new StringBuilder();
         ProgressDialog p = ProgressDialog.show(this, "Profile Update", "Updating profile library...");
+        ProfileLibrary installed = pl;
         AsyncTask.execute(() -> {
             try {
-                byte[] latestLib = ProfileLibrary.fetchLatestLibRelease();
-                try (InputStream in = new ByteArrayInputStream(latestLib)) {
-                    ProfileLibrary fetchedLib = ProfileLibrary.load(in);
-                    if (fetchedLib.getVersion() > pl.getVersion()) {
-                        Log.i("profile-update", String.format("Updating profile library: %d -> %d", pl.getVersion(), fetchedLib.getVersion()));
-                        installProfileLibrary(fetchedLib);
-                        toastMsg.append(String.format("Profile library updated to %d", fetchedLib.getVersion()));
-                    } else {
-                        Log.i("profile-update", String.format("Abort updating: %d -> %d", pl.getVersion(), fetchedLib.getVersion()));
-                        toastMsg.append("Current profile library is the latest!");
+                long installedVersion = installed.getVersion();
+                ProfileLibrary fetchedLib = ProfileLibrary.fetchLibraryUpdate(installed, getCacheDir());
+                if (fetchedLib != null) {
+                    Log.i("profile-update", String.format("Updating profile library: %d -> %d", installedVersion, fetchedLib.getVersion()));
+                    // deltas applied on top of the installed library are journaled, a full download replaces it,
+                    // as does an update of a library whose files were compacted meanwhile
+                    ProfileLibrary updated;
+                    synchronized (libraryFiles) {
+                        updated = loadInstalledProfileLibrary(fetchedLib.canSaveJournal() && onDisk == installed
+                                ? journalProfileLibrary(fetchedLib) : installProfileLibrary(fetchedLib));
                     }
+                    runOnUiThread(() -> {
+                        pl = updated;
+                        compactProfileLibrary();
+                    });
+                    toastMsg.append(String.format("Profile library updated to %d", fetchedLib.getVersion()));
+                } else {
+                    Log.i("profile-update", String.format("Abort updating: %d is the latest", installedVersion));
+                    toastMsg.append("Current profile library is the latest!");
                 }
             } catch (IOException | JSONException e) {
                 Log.w("profile-update", e);
@@ -221,51 +341,99 @@ public class MainActivity extends AppCompatActivity
         startActivityForResult(intent, DE1_DIRECTORY_OPEN_REQUEST);
     }
 
+    /**
+     * Shows the installed profiles as last seen right away, then keeps them up to date
+     * as the profile directory changes.
+     */
     private void populateInstalledProfiles() {
         Log.i("listing-profile", de1Installation.getUri().toString());
         installedProfiles.clear();
-        for (DocumentFile f : profileDir.listFiles()) {
-            try (InputStream in = contentResolver.openInputStream(f.getUri())) {
-                String profileName = Profile.resolveProfileName(in);
-                Map<String, String> item = new HashMap<>();
-                item.put("profileName", profileName);
-                item.put("fileName", "File name: " + f.getName());
-                installedProfiles.add(item);
+        for (InstalledProfileCache.Entry e : installedProfileCache.getEntries()) {
+            installedProfiles.add(installedProfileItem(e));
+        }
+        Log.i("listing-profile", String.format("%d profiles available", installedProfiles.size()));
+        ((BaseAdapter) installedProfileList.getAdapter()).notifyDataSetChanged();
+        installedProfileWatcher.register(profileDir);
+        refreshInstalledProfiles();
+    }
+
+    /**
+     * Lists the profile directory in the background and applies only what changed.
+     */
+    private void refreshInstalledProfiles() {
+        DocumentFile dir = profileDir;
+        AsyncTask.execute(() -> {
+            try {
+                InstalledProfileCache.Changes changes = installedProfileCache.refresh(contentResolver, dir);
+                if (!changes.isEmpty()) {
+                    runOnUiThread(() -> applyInstalledProfileChanges(changes));
+                }
             } catch (IOException e) {
                 Log.w("listing-profile", e);
             }
-        }
-        Log.i("listing-profile", String.format("%d profiles available", installedProfiles.size()));
+        });
+    }
+
+    private void applyInstalledProfileChanges(InstalledProfileCache.Changes changes) {
+        // drop every touched entry first, so applying changes the list already reflects is harmless
+        Set<String> touched = new HashSet<>();
+        Stream.of(changes.added, changes.removed, changes.modified)
+                .flatMap(List::stream)
+                .forEach(e -> touched.add(e.documentId));
+        installedProfiles.removeIf(item -> touched.contains(item.get("documentId")));
+        Comparator<Map<String, String>> byFileName = Comparator.comparing(item -> item.get("fileName"));
+        Stream.concat(changes.added.stream(), changes.modified.stream()).forEach(e -> {
+            Map<String, String> item = installedProfileItem(e);
+            int i = Collections.binarySearch(installedProfiles, item, byFileName);
+            installedProfiles.add(i < 0 ? -i - 1 : i, item);
+        });
+        Log.i("listing-profile", String.format("%d profiles available, %s", installedProfiles.size(), changes));
         ((BaseAdapter) installedProfileList.getAdapter()).notifyDataSetChanged();
     }
 
-    private void writeProfile(String filename, InputStream content) {
-        DocumentFile profileDest = profileDir.findFile(filename);
-        if (profileDest == null) {
-            profileDest = profileDir.createFile("application/profile", filename);
-        }
-        try (OutputStream out = contentResolver.openOutputStream(profileDest.getUri(), "wt")) {
-            IOUtils.copy(content, out);
-        } catch (IOException x) {
-            Log.w("profile-writing", x);
-        }
+    private static Map<String, String> installedProfileItem(InstalledProfileCache.Entry e) {
+        Map<String, String> item = new HashMap<>();
+        item.put("documentId", e.documentId);
+        item.put("profileName", e.profileName);
+        item.put("fileName", "File name: " + e.fileName);
+        return item;
     }
 
-    private void restoreFromTagProfile(Profile p) {
-        try (InputStream in = pl.getInputStream(p)) {
-            writeProfile(p.getFileName(), in);
-        } catch (IOException e) {
-            Log.w("profile-restore", e);
-        }
+    /**
+     * Shows {@code progress} as a cancellable bar following the returned engine.
+     */
+    private RestoreEngine newRestoreEngine(ProgressDialog progress, String title, int total) {
+        RestoreEngine engine = new RestoreEngine(profileStorage, total, RestoreEngine.DEFAULT_WORKERS,
+                r -> runOnUiThread(() -> {
+                    progress.setProgress(r.getDone());
+                    progress.setMessage(r.toString());
+                }));
+        progress.setTitle(title);
+        progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progress.setMax(total);
+        progress.setCancelable(false);
+        progress.setButton(DialogInterface.BUTTON_NEGATIVE, "Cancel", (d, which) -> engine.cancel());
+        progress.show();
+        return engine;
+    }
+
+    private void onRestoreFinished(ProgressDialog progress, RestoreEngine.Result r) {
+        runOnUiThread(() -> {
+            refreshInstalledProfiles();
+            progress.dismiss();
+            Toast.makeText(this, String.format("%d written, %d already up to date, %d failed", r.written, r.skipped, r.failed),
+                    Toast.LENGTH_SHORT).show();
+        });
     }
 
     private void onCorrectInstallationDir() {
         de1Path.setEnabled(false);
         // initialize backup archive
         profileDir = de1Installation.findFile(PROFILE_DIR_NAME);
-        backupArchive = new BackupArchive(this, de1Installation);
+        profileStorage = SafStorageFile.of(this, profileDir);
+        backupArchive = new BackupArchive(SafStorageFile.of(this, de1Installation));
         if (backupArchive.listBackups().size() == 0) {
-            backupArchive.newBackup(profileDir);
+            backupArchive.newBackup(profileStorage);
         }
         backupSelector.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, backupArchive.listBackups()));
 
@@ -329,20 +497,25 @@ public class MainActivity extends AppCompatActivity
     private void handleRestore() {
         List<Profile> profiles = tags.get(tagSelector.getSelectedItemPosition()).getProfiles();
         SparseBooleanArray selected = tagProfileList.getCheckedItemPositions();
-        ProgressDialog progress = ProgressDialog.show(this, "Restoring", "Restoring profiles...");
+        List<Profile> chosen = new ArrayList<>();
+        for (int i = 0; i < selected.size(); ++i) {
+            if (selected.valueAt(i)) {
+                chosen.add(profiles.get(selected.keyAt(i)));
+            }
+        }
+        ProfileLibrary lib = pl;
+        ProgressDialog progress = new ProgressDialog(this);
+        RestoreEngine engine = newRestoreEngine(progress, "Restoring profiles...", chosen.size());
         AsyncTask.execute(() -> {
-            for (int i = 0; i < selected.size(); ++i) {
-                int idx = selected.keyAt(i);
-                if (selected.valueAt(i)) {
-                    Profile p = profiles.get(idx);
+            try {
+                for (Profile p : chosen) {
                     Log.v("profile-restore", p.getProfileName());
-                    restoreFromTagProfile(p);
+                    engine.submit(p.getFileName(), p.getSha(), () -> lib.getInputStream(p));
                 }
+            } catch (InterruptedIOException e) {
+                Log.w("profile-restore", e);
             }
-            runOnUiThread(() -> {
-                populateInstalledProfiles();
-                progress.dismiss();
-            });
+            onRestoreFinished(progress, engine.finish());
         });
 
     }
@@ -350,7 +523,7 @@ public class MainActivity extends AppCompatActivity
     private void handleBackupAll() {
         ProgressDialog progress = ProgressDialog.show(this, "Backup", "Backing up profiles...");
         AsyncTask.execute(() -> {
-            backupArchive.newBackup(profileDir);
+            backupArchive.newBackup(profileStorage);
             runOnUiThread(() -> {
                 ((BaseAdapter) backupSelector.getAdapter()).notifyDataSetChanged();
                 progress.dismiss();
@@ -359,14 +532,12 @@ public class MainActivity extends AppCompatActivity
     }
 
     private void handleRestoreFromBackup() {
-        ProgressDialog progress = ProgressDialog.show(this, "Restoring", "Restoring profiles from a backup...");
+        Backup b = (Backup) backupSelector.getSelectedItem();
+        ProgressDialog progress = new ProgressDialog(this);
+        RestoreEngine engine = newRestoreEngine(progress, "Restoring profiles from a backup...", b.getProfileCount());
         AsyncTask.execute(() -> {
-            Backup b = (Backup) backupSelector.getSelectedItem();
-            backupArchive.restoreFrom(b, profileDir);
-            runOnUiThread(() -> {
-                populateInstalledProfiles();
-                progress.dismiss();
-            });
+            backupArchive.restoreFrom(b, engine, null);
+            onRestoreFinished(progress, engine.finish());
         });
     }
 
@@ -438,11 +609,19 @@ public class MainActivity extends AppCompatActivity
     @Override
     protected void onResume() {
         super.onResume();
-        if (de1Installation != null) {
-            populateInstalledProfiles();
+        if (profileDir != null) {
+            // changes made while in the background were not observed
+            installedProfileWatcher.register(profileDir);
+            refreshInstalledProfiles();
         }
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        installedProfileWatcher.unregister();
+    }
+
     @Override
     public void onNothingSelected(AdapterView<?> parent) {
         // intentionally empty
@@ -0,0 +1,144 @@
+package cc.adward.de1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A file on a plain path, for installations reachable directly and for tooling off the tablet.
+ * Reads are mapped rather than copied onto the heap.
+ */
+class NioStorageFile extends StorageFile {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private Path path;
+
+    NioStorageFile(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        return path.getFileName().toString();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return Files.isDirectory(path);
+    }
+
+    @Override
+    public boolean isFile() {
+        return Files.isRegularFile(path);
+    }
+
+    @Override
+    public long length() {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public long lastModified() {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public StorageFile[] listFiles() {
+        List<StorageFile> files = new ArrayList<>();
+        if (isDirectory()) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(path)) {
+                for (Path p : dir) {
+                    files.add(new NioStorageFile(p));
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot list " + path, e);
+            }
+        }
+        return files.toArray(new StorageFile[0]);
+    }
+
+    @Override
+    public StorageFile findFile(String name) {
+        Path p = path.resolve(name);
+        return Files.exists(p) ? new NioStorageFile(p) : null;
+    }
+
+    @Override
+    public StorageFile createFile(String mimeType, String name) {
+        try {
+            return new NioStorageFile(Files.createFile(path.resolve(name)));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot create " + name, e);
+            return null;
+        }
+    }
+
+    @Override
+    public StorageFile createDirectory(String name) {
+        try {
+            return new NioStorageFile(Files.createDirectory(path.resolve(name)));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot create " + name, e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean renameTo(String name) {
+        try {
+            path = Files.move(path, path.resolveSibling(name), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public OutputStream openOutputStream(boolean append) throws IOException {
+        return append
+                ? Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newOutputStream(path);
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+}
@@ -1,8 +1,11 @@
 package cc.adward.de1;
 
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 public class Profile implements Serializable {
     private String sha;
@@ -23,18 +26,20 @@ public class Profile implements Serializable {
     }
 
     public static String resolveProfileName(InputStream in) {
-        try (Scanner sc = new Scanner(in, "UTF-8")) {
-            while (sc.hasNextLine()) {
-                String line = sc.nextLine();
-                if (line.startsWith("profile_title")) {
-                    int firstSpace = line.indexOf(' ');
-                    return line.substring(firstSpace)
-                            .replace('{', ' ')
-                            .replace('}', ' ').trim();
-                }
-            }
+        try (InputStream profile = in) {
+            return resolveProfileName(IOUtils.toByteArray(profile));
+        } catch (IOException e) {
+            return "?";
         }
-        return "?";
+    }
+
+    public static String resolveProfileName(byte[] profile) {
+        return resolveProfileName(ByteBuffer.wrap(profile));
+    }
+
+    public static String resolveProfileName(ByteBuffer profile) {
+        String title = ProfileMetadata.title(profile);
+        return title != null ? title : "?";
     }
 
     public String getSha() {
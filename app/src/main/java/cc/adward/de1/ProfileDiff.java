@@ -0,0 +1,156 @@
+package cc.adward.de1;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line diffs between profile blobs. Blobs never change once written, so a diff is computed once per
+ * pair of shas and kept in a small least recently used cache.
+ */
+class ProfileDiff {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    interface ContentSource {
+        /**
+         * @return content of the blob {@code sha}, null if unknown
+         */
+        byte[] get(String sha) throws IOException;
+    }
+
+    enum Op {
+        SAME(' '), REMOVED('-'), ADDED('+');
+
+        final char prefix;
+
+        Op(char prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    static class Line {
+        final Op op;
+        final String text;
+
+        Line(Op op, String text) {
+            this.op = op;
+            this.text = text;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return op.prefix + text;
+        }
+    }
+
+    private final ContentSource source;
+    private final Map<String, List<Line>> diffs; // {from_sha..to_sha : lines}
+
+    ProfileDiff(ContentSource source, int capacity) {
+        this.source = source;
+        this.diffs = new LinkedHashMap<String, List<Line>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Line>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param fromSha older blob, null for none
+     * @param toSha   newer blob, null for none
+     * @return every line of both blobs, marked as kept, removed or added
+     */
+    public List<Line> diff(String fromSha, String toSha) throws IOException {
+        String key = fromSha + ".." + toSha;
+        synchronized (diffs) {
+            List<Line> cached = diffs.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // computed outside the lock, a pair asked for twice at once is merely diffed twice
+        List<Line> lines = Collections.unmodifiableList(diff(lines(fromSha), lines(toSha)));
+        synchronized (diffs) {
+            diffs.put(key, lines);
+        }
+        return lines;
+    }
+
+    private List<String> lines(String sha) throws IOException {
+        if (sha == null) {
+            return Collections.emptyList();
+        }
+        byte[] content = source.get(sha);
+        if (content == null) {
+            throw new IOException("No content for " + sha);
+        }
+        String text = new String(content, StandardCharsets.UTF_8);
+        if (text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(text.split("\r?\n", -1));
+    }
+
+    /**
+     * Longest common subsequence of the lines between the common head and tail, which is all a profile edit touches.
+     */
+    static List<Line> diff(List<String> a, List<String> b) {
+        int head = 0;
+        while (head < a.size() && head < b.size() && a.get(head).equals(b.get(head))) {
+            ++head;
+        }
+        int endA = a.size();
+        int endB = b.size();
+        while (endA > head && endB > head && a.get(endA - 1).equals(b.get(endB - 1))) {
+            --endA;
+            --endB;
+        }
+
+        int n = endA - head;
+        int m = endB - head;
+        int[][] common = new int[n + 1][m + 1]; // common[i][j]: lcs length of a[head + i..endA) and b[head + j..endB)
+        for (int i = n - 1; i >= 0; --i) {
+            for (int j = m - 1; j >= 0; --j) {
+                common[i][j] = a.get(head + i).equals(b.get(head + j))
+                        ? common[i + 1][j + 1] + 1
+                        : Math.max(common[i + 1][j], common[i][j + 1]);
+            }
+        }
+
+        List<Line> lines = new ArrayList<>(a.size() + m);
+        for (int k = 0; k < head; ++k) {
+            lines.add(new Line(Op.SAME, a.get(k)));
+        }
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && a.get(head + i).equals(b.get(head + j))) {
+                lines.add(new Line(Op.SAME, a.get(head + i++)));
+                ++j;
+            } else if (j == m || (i < n && common[i + 1][j] >= common[i][j + 1])) {
+                lines.add(new Line(Op.REMOVED, a.get(head + i++)));
+            } else {
+                lines.add(new Line(Op.ADDED, b.get(head + j++)));
+            }
+        }
+        for (int k = endA; k < a.size(); ++k) {
+            lines.add(new Line(Op.SAME, a.get(k)));
+        }
+        return lines;
+    }
+}
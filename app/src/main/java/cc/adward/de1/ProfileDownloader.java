@@ -0,0 +1,120 @@
+package cc.adward.de1;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.client.HttpClient;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.impl.client.HttpClientBuilder;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+/**
+ * Downloads profile contents through a bounded worker pool.
+ * Each host gets its own concurrency limit so raw.githubusercontent.com is not hammered.
+ */
+class ProfileDownloader {
+
+    public static final int DEFAULT_WORKERS = 8;
+    public static final int DEFAULT_PER_HOST = 4;
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private final HttpClient httpClient;
+    private final int workers;
+    private final int perHost;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public ProfileDownloader(HttpClient httpClient, int workers, int perHost) {
+        this.httpClient = httpClient;
+        this.workers = workers;
+        this.perHost = perHost;
+    }
+
+    public static HttpClient newHttpClient(int workers, int perHost) {
+        return HttpClientBuilder.create()
+                .setMaxConnTotal(workers)
+                .setMaxConnPerRoute(perHost)
+                .build();
+    }
+
+    /**
+     * @param links {profile_sha : download_url}, already free of duplicates
+     * @return {profile_sha : content_bytes} for every successful download
+     */
+    public Map<String, byte[]> fetch(Map<String, String> links) throws IOException {
+        Map<String, byte[]> fetched = new ConcurrentHashMap<>();
+        if (links.isEmpty()) {
+            return fetched;
+        }
+
+        AtomicLong bytes = new AtomicLong();
+        long started = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, links.size()));
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Map.Entry<String, String> e : links.entrySet()) {
+                pending.add(pool.submit(() -> {
+                    byte[] content = download(e.getValue());
+                    if (content != null) {
+                        fetched.put(e.getKey(), content);
+                        bytes.addAndGet(content.length);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException x) {
+                    logger.log(Level.WARNING, "Profile download failed!", x.getCause());
+                }
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("profile download interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double secs = Math.max((System.nanoTime() - started) / 1e9, 1e-3);
+        logger.info(String.format("downloaded %d/%d profiles (%d bytes) in %.2fs: %.1f files/s, %.0f bytes/s",
+                fetched.size(), links.size(), bytes.get(), secs, fetched.size() / secs, bytes.get() / secs));
+        return fetched;
+    }
+
+    private byte[] download(String url) throws IOException, InterruptedException {
+        String host = String.valueOf(URI.create(url).getHost());
+        Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(perHost));
+        permits.acquire();
+        try {
+            HttpResponse res = httpClient.execute(new HttpGet(url));
+            if (res.getStatusLine().getStatusCode() == 200) {
+                try (InputStream in = res.getEntity().getContent()) {
+                    return IOUtils.toByteArray(in);
+                }
+            }
+            EntityUtils.consume(res.getEntity());
+            logger.warning("Profile download failed: " + res.getStatusLine().getReasonPhrase());
+            return null;
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package cc.adward.de1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * When each profile file changed across the tags of a library, so its history is one lookup instead of
+ * a walk over every tag. Built in a single pass over the tags, oldest first; only tags where the content
+ * of a file differs from the previous tag holding it are recorded.
+ */
+class ProfileHistory {
+
+    /**
+     * Content of a file as of a tag.
+     */
+    static class Version {
+        final long timestamp;
+        final String tagName;
+        final String sha; // null if the file was removed by this tag
+
+        Version(long timestamp, String tagName, String sha) {
+            this.timestamp = timestamp;
+            this.tagName = tagName;
+            this.sha = sha;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getTagName() {
+            return tagName;
+        }
+
+        public String getSha() {
+            return sha;
+        }
+
+        public boolean isRemoved() {
+            return sha == null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s(%s)", tagName, sha != null ? sha : "removed");
+        }
+    }
+
+    private final Long libraryVersion;
+    private final int tagCount;
+    private final Map<String, List<Version>> versions; // {file_name : versions, oldest first}
+
+    private ProfileHistory(Long libraryVersion, int tagCount, Map<String, List<Version>> versions) {
+        this.libraryVersion = libraryVersion;
+        this.tagCount = tagCount;
+        this.versions = versions;
+    }
+
+    static ProfileHistory build(ProfileLibrary lib) {
+        List<Tag> tags = lib.tagsAsList();
+        Map<String, List<Version>> versions = new HashMap<>();
+        Set<String> present = new HashSet<>();
+        for (int i = tags.size() - 1; i >= 0; --i) {
+            Tag t = tags.get(i);
+            Set<String> current = new HashSet<>();
+            for (Profile p : t.getProfiles()) {
+                current.add(p.getFileName());
+                List<Version> history = versions.computeIfAbsent(p.getFileName(), k -> new ArrayList<>());
+                if (history.isEmpty() || !p.getSha().equals(history.get(history.size() - 1).sha)) {
+                    history.add(new Version(t.getTimestamp(), t.getName(), p.getSha()));
+                }
+            }
+            present.removeAll(current);
+            for (String removed : present) {
+                versions.get(removed).add(new Version(t.getTimestamp(), t.getName(), null));
+            }
+            present = current;
+        }
+        return new ProfileHistory(lib.getVersion(), tags.size(), versions);
+    }
+
+    /**
+     * @return false once the library has tags this history was not built from
+     */
+    boolean isCurrent(Long version, int tags) {
+        // the version only has minute resolution, tags added within the same minute change the count
+        return libraryVersion.equals(version) && tagCount == tags;
+    }
+
+    /**
+     * @return versions of {@code fileName}, oldest first, empty if no tag ever held it
+     */
+    public List<Version> get(String fileName) {
+        List<Version> history = versions.get(fileName);
+        return history != null ? Collections.unmodifiableList(history) : Collections.emptyList();
+    }
+
+    public Set<String> fileNames() {
+        return new TreeSet<>(versions.keySet());
+    }
+}
@@ -5,85 +5,177 @@ import android.support.annotation.RequiresApi;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.apache.commons.io.IOUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.kohsuke.github.GHContent;
 import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GHTag;
+import org.kohsuke.github.GHTree;
+import org.kohsuke.github.GHTreeEntry;
 import org.kohsuke.github.GitHub;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
-import cz.msebera.android.httpclient.HttpResponse;
 import cz.msebera.android.httpclient.client.HttpClient;
-import cz.msebera.android.httpclient.client.methods.HttpGet;
-import cz.msebera.android.httpclient.impl.client.HttpClientBuilder;
 
 
 public class ProfileLibrary implements Serializable {
 
-    public static final String PROFILE_LIB_FILE = "profiles.json.gz";
+    public static final String PROFILE_LIB_FILE = "profiles.de1lib";
     public static final String PROFILE_LIB_FILE_ID = PROFILE_LIB_FILE.replaceAll("\\.", "_");
+    public static final String JOURNAL_SUFFIX = ".journal";
+    public static final String PROFILE_LIB_JOURNAL_FILE = PROFILE_LIB_FILE + JOURNAL_SUFFIX;
+    public static final String LEGACY_PROFILE_LIB_FILE = "profiles.json.gz";
+    public static final String HTTP_CACHE_DIR = ".http_cache";
 
     @JsonIgnore
     private static final Logger logger = Logger.getGlobal();
+    @JsonIgnore
+    private static final int TAG_SCAN_WORKERS = 4;
+    @JsonIgnore
+    private static final int TAG_WINDOW = 16; // scanned tags whose missing blobs are fetched together
+    @JsonIgnore
+    private static final int MAX_JOURNAL_SEGMENTS = 16;
+    @JsonIgnore
+    private static final String PROFILES_PATH = "de1plus/profiles";
+    @JsonIgnore
+    private static final String TAGS_URL = "https://api.github.com/repos/decentespresso/de1app/tags?per_page=100";
+    @JsonIgnore
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>;\\s*rel=\"next\"");
 
     @JsonIgnore
     private GHRepository de1Repo;
     @JsonIgnore
+    private GitHubScheduler github;
+    @JsonIgnore
     private HttpClient httpClient;
+    @JsonIgnore
+    private HttpCache apiCache;
+    @JsonIgnore
+    private Map<String, String> apiHeaders;
+    @JsonIgnore
+    private HttpCache.Response tagListing; // first page of the last tag listing
 
     @JsonProperty
     private Long version; // yyyyMMddHHmm
     @JsonProperty
     private Map<String, Tag> tags; // {tag_sha : tag}
     @JsonProperty
-    private Map<String, byte[]> contentCache; // {profile_sha : content_bytes}
+    private Map<String, List<Profile>> trees; // {profiles_tree_sha : profiles}
+    @JsonProperty
+    private Map<String, byte[]> contentCache; // {profile_sha : content_bytes}, not yet in libraryFile
+    @JsonIgnore
+    private LibraryFile libraryFile; // indexed content of the loaded library, null for legacy json
+    @JsonIgnore
+    private LegacyContent legacyContent; // undecoded content of a json library loaded by loadMetadata()
+    @JsonIgnore
+    private List<LibraryFile> journal = new ArrayList<>(); // segments replayed on top of libraryFile
+    @JsonIgnore
+    private Long storedVersion; // version of the loaded library file with its journal
+    @JsonIgnore
+    private Set<String> storedTags = new HashSet<>(); // tags already in the library file or its journal
+    @JsonIgnore
+    private Set<String> journaledContent = new HashSet<>(); // blobs appended to the journal by saveJournal()
+
+    public interface LibrarySource {
+        InputStream open() throws IOException;
+    }
+
+    public enum FetchStrategy {
+        RAW, // one request per missing profile
+        TARBALL // one source archive per tag, raw requests only for what archives lack
+    }
+
+    @JsonIgnore
+    private FetchStrategy fetchStrategy = FetchStrategy.RAW;
+
+    public interface Checkpoint {
+        void save(ProfileLibrary lib) throws IOException;
+    }
+
+    @JsonIgnore
+    private Checkpoint checkpoint; // called by update() after each completed tag
+
+    @JsonIgnore
+    private ProfileSearchIndex searchIndex; // built on first use, then extended by tags added since
+
+    @JsonIgnore
+    private ProfileHistory history; // rebuilt on first use after tags were added
+
+    @JsonIgnore
+    private final ProfileDiff diffs = new ProfileDiff(this::getContent, ProfileDiff.DEFAULT_CAPACITY);
 
     public ProfileLibrary() {
         this.version = Long.parseLong(new SimpleDateFormat("yyyyMMddHHmm").format(new Date()));
         this.tags = new HashMap<>();
+        this.trees = new HashMap<>();
         this.contentCache = new HashMap<>();
     }
 
     public ProfileLibrary(Long version, Map<String, Tag> tags, Map<String, byte[]> contentCache) {
         this.version = version;
         this.tags = tags;
+        this.trees = new HashMap<>();
         this.contentCache = contentCache;
     }
 
     public void init(String apiKey) {
         try {
             GitHub gh = GitHub.connectUsingOAuth(apiKey);
-            de1Repo = gh.getRepository("decentespresso/de1app");
-            httpClient = HttpClientBuilder.create().build();
+            github = new GitHubScheduler(gh);
+            de1Repo = github.call(() -> gh.getRepository("decentespresso/de1app"));
+            httpClient = ProfileDownloader.newHttpClient(ProfileDownloader.DEFAULT_WORKERS, ProfileDownloader.DEFAULT_PER_HOST);
+            apiCache = new HttpCache(new File(HTTP_CACHE_DIR), httpClient);
+            apiHeaders = new HashMap<>();
+            apiHeaders.put("Authorization", "token " + apiKey);
         } catch (IOException e) {
             logger.log(Level.WARNING, "Failed to initialize profile library!", e);
             de1Repo = null;
             httpClient = null;
+            apiCache = null;
         }
     }
 
@@ -91,68 +183,324 @@ public class ProfileLibrary implements Serializable {
         return version;
     }
 
-    private Map<String, Tag> fetchNewTags() throws IOException {
+    public void setFetchStrategy(FetchStrategy fetchStrategy) {
+        this.fetchStrategy = fetchStrategy;
+    }
+
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Lists tags with conditional requests, one per page of the listing, paced and retried like any other api call.
+     *
+     * @return {commit_sha : tag_name}, or null if no page changed since this library version was built
+     */
+    private Map<String, String> listTags() throws IOException {
+        List<HttpCache.Response> pages = new ArrayList<>();
+        boolean modified = false;
+        for (String url = TAGS_URL; url != null; ) {
+            String pageUrl = url;
+            HttpCache.Response page = github.call(() -> apiCache.get(pageUrl, apiHeaders));
+            modified |= !page.isNotModified();
+            pages.add(page);
+            Matcher next = NEXT_LINK.matcher(page.getLink() == null ? "" : page.getLink());
+            url = next.find() ? next.group(1) : null;
+        }
+        tagListing = pages.get(0);
+        // the note ties the cached listing to the library built from it, in case that was never saved
+        if (!modified && String.valueOf(version).equals(pages.get(0).getNote())) {
+            return null;
+        }
+
+        Map<String, String> listed = new LinkedHashMap<>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (HttpCache.Response page : pages) {
+            for (JsonNode t : mapper.readTree(page.body())) {
+                listed.put(t.path("commit").path("sha").asText(), t.path("name").asText());
+            }
+        }
+        return listed;
+    }
+
+    private void markTagsListed() throws IOException {
+        if (tagListing != null) {
+            tagListing.setNote(String.valueOf(version));
+        }
+    }
+
+    private List<Map.Entry<String, String>> listAbsentTags() throws IOException {
         logger.info("fetching tags...");
-        Map<String, Tag> newTags = new HashMap<>();
-        List<GHTag> absentTags = de1Repo.listTags().toList().stream()
-                .filter(t -> !this.tags.containsKey(t.getCommit().getSHA1()))
+        Map<String, String> listed = listTags();
+        if (listed == null) {
+            logger.info("tag listing not modified, 0 new tags available");
+            return Collections.emptyList();
+        }
+        List<Map.Entry<String, String>> absentTags = listed.entrySet().stream()
+                .filter(t -> !this.tags.containsKey(t.getKey()))
                 .collect(Collectors.toList());
-        for (GHTag t : absentTags) {
-            try {
-                de1Repo.getDirectoryContent("de1plus/profiles", t.getCommit().getSHA1());
-                newTags.put(t.getCommit().getSHA1(), new Tag(t.getCommit().getSHA1(), t.getName(), t.getCommit().getCommitDate()));
-            } catch (Exception e) {
-                logger.warning(String.format("malformed tag: %s(%s)", t.getName(), t.getCommit().getSHA1()));
+        logger.info(String.format("%d new tags available", absentTags.size()));
+        return absentTags;
+    }
+
+    /**
+     * @return scanned tag, or null if the tag has no profiles directory
+     */
+    private Tag scanTag(String sha, String name, Set<String> knownTrees) throws IOException {
+        GHTree profilesTree;
+        try {
+            // "<commit>:<path>" resolves the profiles tree and lists it in a single call
+            profilesTree = github.call(() -> de1Repo.getTree(sha + ":" + PROFILES_PATH));
+        } catch (FileNotFoundException e) {
+            logger.warning(String.format("malformed tag: %s(%s)", name, sha));
+            return null;
+        }
+        Tag tag = new Tag(sha, name, github.call(() -> de1Repo.getCommit(sha).getCommitDate()));
+        tag.setTreeSha(profilesTree.getSha());
+        // the first scan of a tree reserves it, so identical trees are never listed twice
+        if (knownTrees.add(profilesTree.getSha())) {
+            tag.getProfiles().addAll(populateProfiles(sha, profilesTree));
+        }
+        return tag;
+    }
+
+    /**
+     * Completes a window of scanned tags. Blobs missing from any of them are fetched in one go, so tags sharing
+     * profiles download them once and archives are picked across the whole window.
+     * Completed tags then join the library and are checkpointed one by one.
+     *
+     * @param scanned left holding the tags still waiting for the tag that lists their tree
+     * @return false if some tag could not be completed
+     */
+    private boolean completeTags(List<Tag> scanned, ProfileDownloader downloader) throws IOException {
+        List<Tag> fresh = new ArrayList<>(); // tags listing trees not known yet
+        Map<String, String> missing = new LinkedHashMap<>(); // {profile_sha : download_link}
+        for (Tag t : scanned) {
+            if (trees.containsKey(t.getTreeSha()) || isWaiting(t)) {
+                continue;
+            }
+            fresh.add(t);
+            for (Profile p : t.getProfiles()) {
+                if (!hasContent(p.getSha())) {
+                    missing.putIfAbsent(p.getSha(), p.getDownloadLink());
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            if (fetchStrategy == FetchStrategy.TARBALL) {
+                fetchFromArchives(fresh, missing);
+            }
+            // update file sha -> content cache, each distinct blob only once
+            logger.info(String.format("%d distinct profiles to download for %d tags", missing.size(), fresh.size()));
+            contentCache.putAll(downloader.fetch(missing));
+        }
+
+        boolean complete = true;
+        List<Tag> waiting = new ArrayList<>();
+        for (Tag t : scanned) {
+            if (isWaiting(t)) {
+                waiting.add(t); // its tree may be listed by a tag later in the window
+            } else if (!addTag(t)) {
+                complete = false;
+            }
+        }
+        scanned.clear();
+        for (Tag t : waiting) {
+            if (isWaiting(t)) {
+                scanned.add(t);
+            } else {
+                addTag(t);
+            }
+        }
+        return complete;
+    }
+
+    private boolean isWaiting(Tag t) {
+        // git has no empty trees, so no profiles means another scan reserved the tree
+        return t.getProfiles().isEmpty() && !trees.containsKey(t.getTreeSha());
+    }
+
+    private boolean addTag(Tag t) throws IOException {
+        if (!completeTag(t)) {
+            return false;
+        }
+        tags.put(t.getSha(), t);
+        version = Long.parseLong(new SimpleDateFormat("yyyyMMddHHmm").format(new Date()));
+        if (checkpoint != null) {
+            checkpoint.save(this);
+        }
+        return true;
+    }
+
+    /**
+     * Fills in the profiles of a scanned tag, reusing a known tree or naming its profiles once their content is here.
+     *
+     * @return false if some profile content could not be fetched
+     */
+    private boolean completeTag(Tag t) throws IOException {
+        List<Profile> known = trees.get(t.getTreeSha());
+        if (known != null) {
+            t.setProfiles(known);
+            logger.info(String.format("reusing tree %s for %s", t.getTreeSha(), t.getName()));
+            return true;
+        }
+
+        logger.info(String.format("updating %s", t));
+        int absent = 0;
+        for (Profile p : t.getProfiles()) {
+            if (!hasContent(p.getSha())) {
+                ++absent;
             }
         }
-        logger.info(String.format("%d new tags available", newTags.size()));
-        return newTags;
+        if (absent > 0) {
+            logger.warning(String.format("%s: %d profiles could not be fetched", t.getName(), absent));
+            return false;
+        }
+
+        for (Profile p : t.getProfiles()) {
+            // fill in profile name
+            p.setProfileName(Profile.resolveProfileName(getContent(p.getSha())));
+            logger.info(String.format("%s: %s -> %s", t.getName(), p.getFileName(), p.getProfileName()));
+        }
+        trees.put(t.getTreeSha(), t.getProfiles());
+        return true;
     }
 
-    private List<Profile> populateProfiles(String tagSha) throws IOException {
+    private List<Profile> populateProfiles(String tagSha, GHTree listing) throws IOException {
         List<Profile> profilesEmpty = new ArrayList<>();
-        for (GHContent c : de1Repo.getDirectoryContent("de1plus/profiles", tagSha)) {
-            profilesEmpty.add(new Profile(c.getSha(), c.getName(), "", c.getDownloadUrl()));
+        for (GHTreeEntry e : listing.getTree()) {
+            if (e.getType().equals("blob")) {
+                profilesEmpty.add(new Profile(e.getSha(), e.getPath(), "", downloadLink(tagSha, e.getPath())));
+            }
         }
         return profilesEmpty;
     }
 
+    private static String downloadLink(String tagSha, String fileName) throws IOException {
+        try {
+            return new URI("https", "raw.githubusercontent.com",
+                    String.format("/decentespresso/de1app/%s/%s/%s", tagSha, PROFILES_PATH, fileName), null).toASCIIString();
+        } catch (URISyntaxException e) {
+            throw new IOException("Cannot link " + fileName, e);
+        }
+    }
+
+    /**
+     * Takes missing blobs from tag archives, always picking the tag that still misses the most,
+     * so tags sharing most of their profiles cost a single archive.
+     */
+    private void fetchFromArchives(List<Tag> freshTags, Map<String, String> missing) {
+        TagArchive archive = new TagArchive(httpClient);
+        List<Tag> candidates = new ArrayList<>(freshTags);
+        while (!missing.isEmpty() && !candidates.isEmpty()) {
+            Tag best = null;
+            Set<String> bestWanted = null;
+            for (Tag t : candidates) {
+                Set<String> wanted = new HashSet<>();
+                for (Profile p : t.getProfiles()) {
+                    if (missing.containsKey(p.getSha())) {
+                        wanted.add(p.getSha());
+                    }
+                }
+                if (bestWanted == null || wanted.size() > bestWanted.size()) {
+                    best = t;
+                    bestWanted = wanted;
+                }
+            }
+            candidates.remove(best);
+            if (bestWanted.isEmpty()) {
+                break;
+            }
+            try {
+                Map<String, byte[]> found = archive.fetchProfiles(best.getSha(), bestWanted);
+                contentCache.putAll(found);
+                missing.keySet().removeAll(found.keySet());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, String.format("archive of %s failed, downloading its profiles one by one", best), e);
+            }
+        }
+    }
+
     public void update() throws IOException {
         if (de1Repo == null) {
             throw new IllegalStateException("DE1 repository is not properly initialized!");
         }
 
         logger.info(String.format("%d tags exists", this.tags.size()));
-        Map<String, Tag> newTags = fetchNewTags();
-        for (String sha : newTags.keySet()) {
-            Tag t = newTags.get(sha);
-            logger.info(String.format("updating %s", t));
-            for (Profile p : populateProfiles(sha)) {
-                // fill in profile name
-                if (!contentCache.containsKey(p.getSha())) {
-                    // update file sha -> content cache
-                    HttpGet getReq = new HttpGet(p.getDownloadLink());
-                    HttpResponse res = httpClient.execute(getReq);
-                    if (res.getStatusLine().getStatusCode() == 200) {
-                        try (InputStream in = res.getEntity().getContent()) {
-                            contentCache.put(p.getSha(), IOUtils.toByteArray(in));
+        List<Map.Entry<String, String>> absentTags = listAbsentTags();
+        boolean complete = true;
+        if (!absentTags.isEmpty()) {
+            Set<String> knownTrees = ConcurrentHashMap.newKeySet();
+            knownTrees.addAll(trees.keySet());
+            ProfileDownloader downloader = new ProfileDownloader(httpClient, ProfileDownloader.DEFAULT_WORKERS,
+                    ProfileDownloader.DEFAULT_PER_HOST);
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(TAG_SCAN_WORKERS, absentTags.size()));
+            try {
+                // the listing both validates a tag and provides its profiles, so each tag is listed exactly once
+                List<Future<Tag>> scans = new ArrayList<>();
+                for (Map.Entry<String, String> t : absentTags) {
+                    scans.add(pool.submit(() -> scanTag(t.getKey(), t.getValue(), knownTrees)));
+                }
+                // tags are completed a window at a time while later ones are still being scanned
+                List<Tag> window = new ArrayList<>();
+                for (int i = 0; i < scans.size(); ++i) {
+                    try {
+                        Tag t = scans.get(i).get();
+                        if (t != null) {
+                            window.add(t);
                         }
-
-                    } else {
-                        logger.warning("Profile download failed: " + res.getStatusLine().getReasonPhrase());
+                    } catch (ExecutionException e) {
+                        logger.log(Level.WARNING, "tag scan failed", e.getCause());
+                        complete = false;
                     }
+                    if (window.size() >= TAG_WINDOW || (i == scans.size() - 1 && !window.isEmpty())) {
+                        complete &= completeTags(window, downloader);
+                    }
+                }
+                if (!window.isEmpty()) {
+                    logger.warning(String.format("%d tags left behind, the tags listing their trees failed", window.size()));
+                    complete = false;
                 }
-                byte[] profileContent = contentCache.get(p.getSha());
-                String profileName = Profile.resolveProfileName(new ByteArrayInputStream(profileContent));
-                p.setProfileName(profileName);
-                logger.info(String.format("%s: %s -> %s", t.getName(), p.getFileName(), p.getProfileName()));
-                t.getProfiles().add(p);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("tag scan interrupted");
+            } finally {
+                pool.shutdownNow();
             }
         }
-        if (newTags.size() != 0) {
-            version = Long.parseLong(new SimpleDateFormat("yyyyMMddHHmm").format(new Date()));
+        if (complete) { // otherwise the unchanged listing must not hide the tags left behind
+            markTagsListed();
         }
-        tags.putAll(newTags);
+    }
+
+    /**
+     * @return an index of the profiles of every tag, including tags added since the last call
+     */
+    @JsonIgnore
+    public synchronized ProfileSearchIndex getSearchIndex() throws IOException {
+        if (searchIndex == null) {
+            searchIndex = new ProfileSearchIndex();
+        }
+        searchIndex.sync(this);
+        return searchIndex;
+    }
+
+    /**
+     * @return versions of every profile file across the tags, as of the current library version
+     */
+    @JsonIgnore
+    public synchronized ProfileHistory getHistory() {
+        if (history == null || !history.isCurrent(version, tags.size())) {
+            history = ProfileHistory.build(this);
+        }
+        return history;
+    }
+
+    /**
+     * @return line diff between two versions of a profile, see {@link ProfileHistory.Version#getSha()}
+     */
+    public List<ProfileDiff.Line> diff(String fromSha, String toSha) throws IOException {
+        return diffs.diff(fromSha, toSha);
     }
 
     public List<Tag> tagsAsList() {
@@ -161,15 +509,183 @@ public class ProfileLibrary implements Serializable {
                 .collect(Collectors.toList());
     }
 
+    private boolean hasContent(String sha) {
+        return contentCache.containsKey(sha)
+                || isStored(sha)
+                || (legacyContent != null && legacyContent.contains(sha));
+    }
+
+    private boolean isStored(String sha) {
+        if (journaledContent.contains(sha) || (libraryFile != null && libraryFile.contains(sha))) {
+            return true;
+        }
+        for (LibraryFile segment : journal) {
+            if (segment.contains(sha)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return content of the blob {@code sha}, null if the library does not have it
+     */
+    byte[] getContent(String sha) throws IOException {
+        byte[] content = contentCache.get(sha);
+        if (content == null && libraryFile != null) {
+            content = libraryFile.read(sha);
+        }
+        for (int i = journal.size() - 1; content == null && i >= 0; --i) {
+            content = journal.get(i).read(sha);
+        }
+        if (content == null && legacyContent != null) {
+            content = legacyContent.read(sha);
+        }
+        return content;
+    }
+
     @JsonIgnore
-    public InputStream getInputStream(Profile p) {
-        return new ByteArrayInputStream(contentCache.get(p.getSha()));
+    public InputStream getInputStream(Profile p) throws IOException {
+        byte[] content = getContent(p.getSha());
+        if (content == null) {
+            throw new FileNotFoundException("No content for " + p.getFileName());
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    private ProfileLibrary linkTrees() {
+        // tags sharing a profiles tree are serialized without their own profile list
+        for (Tag t : tags.values()) {
+            if (t.getTreeSha() != null && trees.containsKey(t.getTreeSha())) {
+                t.setProfiles(trees.get(t.getTreeSha()));
+            }
+        }
+        return this;
     }
 
+    /**
+     * Reads either the indexed library format or a legacy gzipped json library.
+     */
     public static ProfileLibrary load(InputStream in) throws IOException {
-        try (GZIPInputStream zIn = new GZIPInputStream(in)) {
-            return new ObjectMapper().readValue(zIn, ProfileLibrary.class);
+        BufferedInputStream bIn = new BufferedInputStream(in);
+        bIn.mark(4);
+        byte[] head = new byte[4];
+        int read = IOUtils.read(bIn, head);
+        bIn.reset();
+        if (read == head.length && LibraryFile.matches(head)) {
+            return load(ByteBuffer.wrap(IOUtils.toByteArray(bIn)));
+        }
+        try (GZIPInputStream zIn = new GZIPInputStream(bIn)) {
+            return new ObjectMapper().readValue(zIn, ProfileLibrary.class).linkTrees();
+        }
+    }
+
+    /**
+     * Opens an indexed library; only metadata is decoded, content stays in {@code buf}
+     * which is typically a read-only mapping of the library file.
+     */
+    public static ProfileLibrary load(ByteBuffer buf) throws IOException {
+        return load(buf, null);
+    }
+
+    /**
+     * Opens an indexed library and replays the journal appended to it by {@link #saveJournal(OutputStream)}.
+     * Journal content stays in {@code journal} just like library content stays in {@code buf}.
+     */
+    public static ProfileLibrary load(ByteBuffer buf, ByteBuffer journal) throws IOException {
+        LibraryFile file = LibraryFile.open(buf);
+        LibraryFile.Metadata meta = file.getMetadata();
+        ProfileLibrary lib = new ProfileLibrary(meta.version, meta.tags, new HashMap<>());
+        if (meta.trees != null) {
+            lib.trees = meta.trees;
         }
+        lib.libraryFile = file;
+        if (journal != null) {
+            lib.replayJournal(journal);
+        }
+        lib.storedVersion = lib.version;
+        lib.storedTags.addAll(lib.tags.keySet());
+        return lib.linkTrees();
+    }
+
+    private void replayJournal(ByteBuffer buf) {
+        buf = buf.duplicate();
+        while (buf.hasRemaining()) {
+            LibraryFile segment;
+            try {
+                segment = LibraryFile.open(buf.slice());
+            } catch (IOException e) {
+                // torn by an interrupted append, nothing was written after it
+                logger.warning(String.format("discarding %d bytes of unreadable library journal", buf.remaining()));
+                return;
+            }
+            LibraryFile.Metadata meta = segment.getMetadata();
+            if (meta.baseVersion == null || !meta.baseVersion.equals(version)) {
+                // left behind by a snapshot that replaced the one it was appended to
+                logger.warning(String.format("discarding library journal for v%s on v%d", meta.baseVersion, version));
+                return;
+            }
+            merge(meta);
+            journal.add(segment);
+            buf.position(buf.position() + (int) segment.length());
+        }
+    }
+
+    private void merge(LibraryFile.Metadata meta) {
+        if (meta.trees != null) {
+            for (Map.Entry<String, List<Profile>> e : meta.trees.entrySet()) {
+                trees.putIfAbsent(e.getKey(), e.getValue());
+            }
+        }
+        tags.putAll(meta.tags);
+        version = meta.version;
+    }
+
+    /**
+     * Like {@link #load(InputStream)}, but a json library is parsed token by token and its
+     * contentCache values are skipped; they are decoded from {@code source} on first use.
+     */
+    public static ProfileLibrary loadMetadata(LibrarySource source) throws IOException {
+        try (BufferedInputStream bIn = new BufferedInputStream(source.open())) {
+            bIn.mark(4);
+            byte[] head = new byte[4];
+            int read = IOUtils.read(bIn, head);
+            bIn.reset();
+            if (read == head.length && LibraryFile.matches(head)) {
+                return load(bIn);
+            }
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        ProfileLibrary lib = new ProfileLibrary(null, new HashMap<>(), new HashMap<>());
+        try (JsonParser p = mapper.getFactory().createParser(new GZIPInputStream(source.open()))) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a profile library!");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "version":
+                        lib.version = p.getLongValue();
+                        break;
+                    case "tags":
+                        lib.tags = mapper.readValue(p, new TypeReference<HashMap<String, Tag>>() {
+                        });
+                        break;
+                    case "trees":
+                        lib.trees = mapper.readValue(p, new TypeReference<HashMap<String, List<Profile>>>() {
+                        });
+                        break;
+                    case "contentCache":
+                        lib.legacyContent = new LegacyContent(source, LegacyContent.skipContentCache(p));
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+        }
+        return lib.linkTrees();
     }
 
     @RequiresApi(api = Build.VERSION_CODES.O)
@@ -179,17 +695,33 @@ public class ProfileLibrary implements Serializable {
         }
 
         if (!Files.exists(Paths.get(path))) {
+            if (Files.exists(Paths.get(LEGACY_PROFILE_LIB_FILE))) {
+                return loadMetadata(() -> Files.newInputStream(Paths.get(LEGACY_PROFILE_LIB_FILE)));
+            }
             new ProfileLibrary().save(path);
         }
-        try (InputStream in = Files.newInputStream(Paths.get(path))) {
-            return load(in);
+        Path journal = Paths.get(path + JOURNAL_SUFFIX);
+        return load(map(Paths.get(path)), Files.exists(journal) ? map(journal) : null);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
         }
     }
 
     public void save(OutputStream out) throws IOException {
-        try (GZIPOutputStream zOut = new GZIPOutputStream(out)) {
-            new ObjectMapper().writeValue(zOut, this);
+        Map<String, byte[]> fresh = contentCache;
+        if (legacyContent != null) {
+            fresh = new HashMap<>(legacyContent.readAll());
+            fresh.putAll(contentCache);
         }
+        List<LibraryFile> previous = new ArrayList<>(journal);
+        if (libraryFile != null) {
+            previous.add(libraryFile);
+        }
+        LibraryFile.write(out, new LibraryFile.Metadata(version, tags, trees), fresh, previous);
     }
 
     @RequiresApi(api = Build.VERSION_CODES.O)
@@ -197,59 +729,173 @@ public class ProfileLibrary implements Serializable {
         if (path == null) {
             path = PROFILE_LIB_FILE;
         }
-        try (OutputStream out = Files.newOutputStream(Paths.get(path))) {
+        // never truncate the file this library may still be mapping
+        Path target = Paths.get(path);
+        Path tmp = Paths.get(path + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
             save(out);
         }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // already folded into the snapshot, and no longer replayable on top of it
+        Files.deleteIfExists(Paths.get(path + JOURNAL_SUFFIX));
     }
 
-    public static byte[] fetchLatestLibRelease() throws IOException, JSONException {
-        final String releaseUrl = "https://api.github.com/repos/hsyhsw/de1-profile-restoration/releases";
-
-        // list pre-release and find the latest
-        HttpClient http = HttpClientBuilder.create().build();
-        HttpGet getReq = new HttpGet(releaseUrl);
-        HttpResponse res = http.execute(getReq);
-        long latestVersion = 0;
-        String downloadUrl = null;
-        if (res.getStatusLine().getStatusCode() == 200) {
-            try (InputStream in = res.getEntity().getContent()) {
-                String jsonStr = IOUtils.toString(in, "UTF-8");
-                JSONArray rels = new JSONArray(jsonStr);
-                for (int i = 0; i < rels.length(); ++i) {
-                    JSONObject o = rels.getJSONObject(i);
-                    if (o.getBoolean("prerelease")) {
-                        long version = Long.parseLong(o.getString("tag_name"));
-                        String url = o.getJSONArray("assets").getJSONObject(0).getString("browser_download_url");
-                        if (version > latestVersion) {
-                            latestVersion = version;
-                            downloadUrl = url;
-                        }
-                    }
-                }
-            }
+    /**
+     * Appends what this library has on top of the file and journal it was loaded from as one journal segment,
+     * so saving an update costs what changed rather than the whole library.
+     *
+     * @return false if there was nothing to append
+     */
+    public boolean saveJournal(OutputStream out) throws IOException {
+        if (storedVersion == null) {
+            throw new IllegalStateException("Profile library was not loaded from a library file!");
+        }
+        if (storedTags.containsAll(tags.keySet())) {
+            return false;
+        }
+        Map<String, byte[]> appended = writeDelta(out, storedVersion, storedTags, this::isStored);
+        storedTags.addAll(tags.keySet());
+        journaledContent.addAll(appended.keySet());
+        storedVersion = version;
+        return true;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean saveJournal(String path) throws IOException {
+        if (path == null) {
+            path = PROFILE_LIB_FILE;
         }
+        try (OutputStream out = Files.newOutputStream(Paths.get(path + JOURNAL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            return saveJournal(out);
+        }
+    }
+
+    /**
+     * @return true if this library still knows the file it was loaded from, so that {@link #saveJournal(OutputStream)} works
+     */
+    public boolean canSaveJournal() {
+        return storedVersion != null;
+    }
+
+    /**
+     * @return true once the replayed journal is long enough that folding it into a new snapshot pays off
+     */
+    public boolean needsCompaction() {
+        long journalSize = 0;
+        for (LibraryFile segment : journal) {
+            journalSize += segment.length();
+        }
+        return journal.size() > MAX_JOURNAL_SEGMENTS
+                || (libraryFile != null && journalSize > libraryFile.length() / 2);
+    }
+
+    /**
+     * Writes only what this library has on top of {@code base}: its new tags, the trees
+     * they refer to and the blobs {@code base} does not hold.
+     */
+    public void saveDelta(OutputStream out, ProfileLibrary base) throws IOException {
+        writeDelta(out, base.version, base.tags.keySet(), base::hasContent);
+    }
 
-        // download latest and return it
-        if (downloadUrl != null) {
-            res = http.execute(new HttpGet(downloadUrl));
-            if (res.getStatusLine().getStatusCode() == 200) {
-                try (InputStream in = res.getEntity().getContent()) {
-                    return IOUtils.toByteArray(in);
+    /**
+     * @return blobs written
+     */
+    private Map<String, byte[]> writeDelta(OutputStream out, Long baseVersion, Set<String> baseTags,
+                                           Predicate<String> baseHasContent) throws IOException {
+        Map<String, Tag> newTags = new HashMap<>();
+        Map<String, List<Profile>> newTrees = new HashMap<>();
+        Map<String, byte[]> newContent = new HashMap<>();
+        for (Tag t : tags.values()) {
+            if (baseTags.contains(t.getSha())) {
+                continue;
+            }
+            newTags.put(t.getSha(), t);
+            if (t.getTreeSha() != null) {
+                newTrees.put(t.getTreeSha(), t.getProfiles());
+            }
+            for (Profile p : t.getProfiles()) {
+                if (!baseHasContent.test(p.getSha()) && !newContent.containsKey(p.getSha()) && hasContent(p.getSha())) {
+                    newContent.put(p.getSha(), getContent(p.getSha()));
                 }
             }
         }
+        LibraryFile.Metadata meta = new LibraryFile.Metadata(version, newTags, newTrees);
+        meta.baseVersion = baseVersion;
+        LibraryFile.write(out, meta, newContent, Collections.emptyList());
+        return newContent;
+    }
+
+    /**
+     * @return a library sharing the stored content of this one, which deltas can be applied to without touching this one
+     */
+    ProfileLibrary copy() {
+        ProfileLibrary c = new ProfileLibrary(version, new HashMap<>(tags), new HashMap<>(contentCache));
+        c.trees = new HashMap<>(trees);
+        c.libraryFile = libraryFile;
+        c.legacyContent = legacyContent;
+        c.journal = new ArrayList<>(journal);
+        c.storedVersion = storedVersion;
+        c.storedTags = new HashSet<>(storedTags);
+        c.journaledContent = new HashSet<>(journaledContent);
+        return c;
+    }
+
+    /**
+     * Merges a delta written by {@link #saveDelta(OutputStream, ProfileLibrary)} against this library's version.
+     */
+    public void applyDelta(InputStream in) throws IOException {
+        LibraryFile delta = LibraryFile.open(ByteBuffer.wrap(IOUtils.toByteArray(in)));
+        LibraryFile.Metadata meta = delta.getMetadata();
+        if (meta.baseVersion == null || !meta.baseVersion.equals(version)) {
+            throw new IOException(String.format("Delta for v%s cannot be applied to v%d", meta.baseVersion, version));
+        }
+        // decode everything before touching this library so a corrupted delta leaves it intact
+        Map<String, byte[]> newContent = new HashMap<>();
+        for (String sha : delta.shas()) {
+            newContent.put(sha, delta.read(sha));
+        }
 
-        return null;
+        contentCache.putAll(newContent);
+        merge(meta);
+        linkTrees();
+    }
+
+    /**
+     * @return {@code installed} brought up to date, a newly fetched library, or null if already the latest
+     */
+    public static ProfileLibrary fetchLibraryUpdate(ProfileLibrary installed, File cacheDir) throws IOException, JSONException {
+        return new LibraryReleases(cacheDir).fetchUpdate(installed);
     }
 }
 
 class LibraryUpdater {
     @RequiresApi(api = Build.VERSION_CODES.O)
     public static void main(String[] args) throws IOException {
+        // a previous run that did not finish left the tags it completed in the journal, replayed here
         ProfileLibrary l = ProfileLibrary.load((String) null);
+        Path snapshot = Paths.get(ProfileLibrary.PROFILE_LIB_FILE);
+        if (!Files.exists(snapshot)) { // loaded from the legacy json library, the journal needs a snapshot to append to
+            l.save((String) null);
+            l = ProfileLibrary.load((String) null);
+        }
+        // the released snapshot alone, which installed clients hold
+        ProfileLibrary base = ProfileLibrary.load(ByteBuffer.wrap(Files.readAllBytes(snapshot)));
         l.init(args[0]); // args[0]: github api key enabled for accessing public repos
+        // each tag costs one appended segment, the snapshot is rewritten once at the end
+        l.setCheckpoint(lib -> lib.saveJournal((String) null));
+        if (args.length > 1) { // args[1]: raw | tarball
+            l.setFetchStrategy(ProfileLibrary.FetchStrategy.valueOf(args[1].toUpperCase()));
+        }
         l.update();
-        l.save((String) null);
+        l.save((String) null); // compacts the journal into the snapshot
+        if (!l.getVersion().equals(base.getVersion())) {
+            // upload along with the full library so installed clients fetch only the difference
+            String delta = LibraryReleases.deltaFileName(base.getVersion(), l.getVersion());
+            try (OutputStream out = Files.newOutputStream(Paths.get(delta))) {
+                l.saveDelta(out, base);
+            }
+        }
         l.tagsAsList().forEach(System.out::println);
 
         Path targetPath = Paths.get("app/src/main/res/raw/" + ProfileLibrary.PROFILE_LIB_FILE_ID);
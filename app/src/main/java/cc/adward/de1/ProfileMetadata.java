@@ -0,0 +1,200 @@
+package cc.adward.de1;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Header values of a DE1 profile, read straight from its bytes.
+ * A profile is a TCL list of {@code key value} pairs, one pair per line, where a value is a bare word,
+ * a double-quoted string or a brace-quoted string that may nest braces and span lines.
+ * The scan allocates nothing but the values it decodes and stops once every wanted key is found.
+ */
+class ProfileMetadata {
+
+    private static final byte[] TITLE = bytes("profile_title");
+    private static final byte[] AUTHOR = bytes("author");
+    private static final byte[] NOTES = bytes("profile_notes");
+    private static final byte[] BEVERAGE_TYPE = bytes("beverage_type");
+    private static final byte[] PROFILE_TYPE = bytes("settings_profile_type");
+
+    private static final byte[][] HEADER_KEYS = {TITLE, AUTHOR, NOTES, BEVERAGE_TYPE, PROFILE_TYPE};
+
+    private String title;
+    private String author;
+    private String notes;
+    private String beverageType;
+    private String profileType;
+
+    private ProfileMetadata() {
+        // use parse
+    }
+
+    /**
+     * @return the {@code profile_title} value, null if there is none
+     */
+    public static String title(ByteBuffer profile) {
+        byte[][] keys = {TITLE};
+        String[] values = new String[1];
+        scan(profile, keys, values);
+        return values[0];
+    }
+
+    public static ProfileMetadata parse(ByteBuffer profile) {
+        String[] values = new String[HEADER_KEYS.length];
+        scan(profile, HEADER_KEYS, values);
+        ProfileMetadata m = new ProfileMetadata();
+        m.title = values[0];
+        m.author = values[1];
+        m.notes = values[2];
+        m.beverageType = values[3];
+        m.profileType = values[4];
+        return m;
+    }
+
+    public static ProfileMetadata parse(byte[] profile) {
+        return parse(ByteBuffer.wrap(profile));
+    }
+
+    /**
+     * Decodes the values of {@code keys} into {@code values}, first occurrence wins.
+     * The buffer's position is left untouched.
+     */
+    private static void scan(ByteBuffer b, byte[][] keys, String[] values) {
+        int missing = keys.length;
+        int pos = b.position();
+        int end = b.limit();
+        while (pos < end && missing > 0) {
+            while (pos < end && isWhitespace(b.get(pos))) {
+                ++pos;
+            }
+            int keyStart = pos;
+            while (pos < end && !isWhitespace(b.get(pos))) {
+                ++pos;
+            }
+            int keyEnd = pos;
+            while (pos < end && isBlank(b.get(pos))) {
+                ++pos;
+            }
+
+            int valueStart;
+            int valueEnd;
+            if (pos < end && (b.get(pos) == '{' || b.get(pos) == '"')) {
+                valueStart = pos + 1;
+                valueEnd = b.get(pos) == '{' ? closingBrace(b, valueStart, end) : closingQuote(b, valueStart, end);
+                pos = Math.min(valueEnd + 1, end);
+            } else {
+                valueStart = pos;
+                while (pos < end && b.get(pos) != '\n' && b.get(pos) != '\r') {
+                    ++pos;
+                }
+                valueEnd = pos;
+            }
+            // anything after the value up to the end of the line is not part of the pair
+            while (pos < end && b.get(pos) != '\n') {
+                ++pos;
+            }
+
+            int k = indexOf(keys, b, keyStart, keyEnd);
+            if (k >= 0 && values[k] == null) {
+                while (valueStart < valueEnd && isWhitespace(b.get(valueStart))) {
+                    ++valueStart;
+                }
+                while (valueEnd > valueStart && isWhitespace(b.get(valueEnd - 1))) {
+                    --valueEnd;
+                }
+                values[k] = decode(b, valueStart, valueEnd);
+                --missing;
+            }
+        }
+    }
+
+    /**
+     * @return index of the brace closing the one just before {@code from}, or {@code end} if unbalanced
+     */
+    private static int closingBrace(ByteBuffer b, int from, int end) {
+        int depth = 1;
+        for (int i = from; i < end; ++i) {
+            byte c = b.get(i);
+            if (c == '\\') {
+                ++i; // escaped characters do not nest
+            } else if (c == '{') {
+                ++depth;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int closingQuote(ByteBuffer b, int from, int end) {
+        for (int i = from; i < end; ++i) {
+            byte c = b.get(i);
+            if (c == '\\') {
+                ++i;
+            } else if (c == '"' || c == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int indexOf(byte[][] keys, ByteBuffer b, int from, int to) {
+        for (int k = 0; k < keys.length; ++k) {
+            byte[] key = keys[k];
+            if (key.length != to - from) {
+                continue;
+            }
+            int i = 0;
+            while (i < key.length && key[i] == b.get(from + i)) {
+                ++i;
+            }
+            if (i == key.length) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(ByteBuffer b, int from, int to) {
+        if (b.hasArray()) {
+            return new String(b.array(), b.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        }
+        byte[] value = new byte[to - from];
+        for (int i = 0; i < value.length; ++i) {
+            value[i] = b.get(from + i);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return isBlank(c) || c == '\n' || c == '\r';
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+    public String getBeverageType() {
+        return beverageType;
+    }
+
+    public String getProfileType() {
+        return profileType;
+    }
+}
@@ -0,0 +1,236 @@
+package cc.adward.de1;
+
+import org.javatuples.Pair;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Finds profiles of every tag by words of their name, file name or content.
+ * Each distinct content (blob sha) is tokenized once however many tags hold it, and
+ * {@link #sync(ProfileLibrary)} only indexes tags it has not seen, so the index grows along with the library.
+ * Query words match terms exactly, by prefix, or failing both within a small edit distance.
+ */
+class ProfileSearchIndex {
+
+    private static final int NAME = 1;
+    private static final int FILE_NAME = 2;
+    private static final int BODY = 4;
+
+    /**
+     * Profiles sharing one content.
+     */
+    static class Hit {
+        final String sha;
+        final String profileName;
+        final List<Pair<Tag, Profile>> refs; // newest tag first
+        final float score;
+
+        Hit(String sha, String profileName, List<Pair<Tag, Profile>> refs, float score) {
+            this.sha = sha;
+            this.profileName = profileName;
+            this.refs = refs;
+            this.score = score;
+        }
+
+        public String getProfileName() {
+            return profileName;
+        }
+
+        public List<Pair<Tag, Profile>> getRefs() {
+            return refs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%d tags)", profileName, refs.size());
+        }
+    }
+
+    private final Map<String, Integer> docs = new HashMap<>(); // {blob_sha : doc}
+    private final List<Hit> hits = new ArrayList<>(); // by doc, refs growing as tags are indexed
+    private final TreeMap<String, Map<Integer, Integer>> terms = new TreeMap<>(); // {term : {doc : fields}}
+    private final Set<String> indexedTags = new HashSet<>();
+
+    /**
+     * Indexes the tags of {@code lib} not indexed yet. Tags whose content is still incomplete are left for a later sync.
+     * Not to be called while {@code lib} is being updated.
+     *
+     * @return number of tags indexed
+     */
+    public synchronized int sync(ProfileLibrary lib) throws IOException {
+        int indexed = 0;
+        List<Tag> tags = lib.tagsAsList();
+        // oldest first, so that refs of a hit end up newest first
+        for (int i = tags.size() - 1; i >= 0; --i) {
+            Tag t = tags.get(i);
+            if (indexedTags.contains(t.getSha())) {
+                continue;
+            }
+            Map<String, byte[]> fresh = new HashMap<>(); // {blob_sha : content} not indexed yet
+            for (Profile p : t.getProfiles()) {
+                if (!docs.containsKey(p.getSha()) && !fresh.containsKey(p.getSha())) {
+                    fresh.put(p.getSha(), lib.getContent(p.getSha()));
+                }
+            }
+            if (fresh.containsValue(null)) {
+                continue;
+            }
+            for (Profile p : t.getProfiles()) {
+                Integer doc = docs.get(p.getSha());
+                if (doc == null) {
+                    doc = add(p, fresh.get(p.getSha()));
+                }
+                hits.get(doc).refs.add(0, Pair.with(t, p));
+            }
+            indexedTags.add(t.getSha());
+            ++indexed;
+        }
+        return indexed;
+    }
+
+    private int add(Profile p, byte[] content) {
+        int doc = hits.size();
+        docs.put(p.getSha(), doc);
+        String name = p.getProfileName() != null ? p.getProfileName() : p.getFileName();
+        hits.add(new Hit(p.getSha(), name, new ArrayList<>(), 0));
+        index(doc, p.getProfileName(), NAME);
+        index(doc, p.getFileName(), FILE_NAME);
+        index(doc, new String(content, StandardCharsets.UTF_8), BODY);
+        return doc;
+    }
+
+    private void index(int doc, String text, int field) {
+        if (text == null) {
+            return;
+        }
+        for (String term : tokenize(text)) {
+            // numbers in the body are shot parameters, not worth looking up
+            if (field == BODY && (term.length() < 2 || Character.isDigit(term.charAt(0)))) {
+                continue;
+            }
+            terms.computeIfAbsent(term, k -> new HashMap<>()).merge(doc, field, (a, b) -> a | b);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return profiles matching every word of {@code query}, best first
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        Map<Integer, Float> scores = null;
+        for (String word : tokenize(query)) {
+            Map<Integer, Float> matched = match(word);
+            if (scores == null) {
+                scores = matched;
+            } else {
+                scores.keySet().retainAll(matched.keySet());
+                for (Map.Entry<Integer, Float> e : scores.entrySet()) {
+                    e.setValue(e.getValue() + matched.get(e.getKey()));
+                }
+            }
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+
+        List<Hit> found = new ArrayList<>();
+        if (scores == null) {
+            return found;
+        }
+        for (Map.Entry<Integer, Float> e : scores.entrySet()) {
+            Hit h = hits.get(e.getKey());
+            found.add(new Hit(h.sha, h.profileName, new ArrayList<>(h.refs), e.getValue()));
+        }
+        found.sort((lhs, rhs) -> lhs.score != rhs.score
+                ? Float.compare(rhs.score, lhs.score)
+                : lhs.profileName.compareTo(rhs.profileName));
+        return found.subList(0, Math.min(limit, found.size()));
+    }
+
+    /**
+     * @return {doc : score} of the documents having a term matching {@code word}
+     */
+    private Map<Integer, Float> match(String word) {
+        Map<Integer, Float> scores = new HashMap<>();
+        NavigableMap<String, Map<Integer, Integer>> prefixed = terms.subMap(word, true, word + Character.MAX_VALUE, false);
+        for (Map.Entry<String, Map<Integer, Integer>> e : prefixed.entrySet()) {
+            collect(scores, e.getValue(), e.getKey().equals(word) ? 1.0f : 0.8f);
+        }
+        int maxDistance = word.length() < 4 ? 0 : word.length() < 8 ? 1 : 2;
+        if (scores.isEmpty() && maxDistance > 0) {
+            for (Map.Entry<String, Map<Integer, Integer>> e : terms.entrySet()) {
+                if (Math.abs(e.getKey().length() - word.length()) <= maxDistance
+                        && withinDistance(word, e.getKey(), maxDistance)) {
+                    collect(scores, e.getValue(), 0.5f);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static void collect(Map<Integer, Float> scores, Map<Integer, Integer> postings, float match) {
+        for (Map.Entry<Integer, Integer> p : postings.entrySet()) {
+            float score = match * weight(p.getValue());
+            scores.merge(p.getKey(), score, Math::max);
+        }
+    }
+
+    private static float weight(int fields) {
+        return (fields & NAME) != 0 ? 3 : (fields & FILE_NAME) != 0 ? 2 : 1;
+    }
+
+    /**
+     * Levenshtein distance of {@code a} and {@code b} is at most {@code max}, giving up as soon as a row exceeds it.
+     */
+    static boolean withinDistance(String a, String b, int max) {
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); ++j) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); ++i) {
+            cur[0] = i;
+            int best = cur[0];
+            for (int j = 1; j <= b.length(); ++j) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                best = Math.min(best, cur[j]);
+            }
+            if (best > max) {
+                return false;
+            }
+            int[] swap = prev;
+            prev = cur;
+            cur = swap;
+        }
+        return prev[b.length()] <= max;
+    }
+
+    public synchronized int size() {
+        return hits.size();
+    }
+}
@@ -0,0 +1,192 @@
+package cc.adward.de1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes profiles into a directory on a small worker pool.
+ * Submitting blocks once a few writes are in flight, so producers streaming out of a backup
+ * never get ahead of the writers by more than that.
+ * A profile whose installed file already has the submitted git blob sha is only read, not rewritten.
+ */
+class RestoreEngine {
+
+    public static final int DEFAULT_WORKERS = 3; // SAF writes gain little beyond a few in flight
+
+    private static final Logger logger = Logger.getGlobal();
+
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    interface Listener {
+        /**
+         * Called from worker threads after each profile.
+         */
+        void onProgress(Result progress);
+    }
+
+    static class Result {
+        int total;
+        int written;
+        int skipped; // already up to date
+        int failed;
+        long bytes;
+        long elapsedMillis;
+        boolean cancelled;
+
+        public int getDone() {
+            return written + skipped + failed;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+            return String.format("%d written, %d skipped, %d failed%s (%.1f files/s, %.1f KB/s)",
+                    written, skipped, failed, cancelled ? ", cancelled" : "", getDone() / seconds, bytes / 1024.0 / seconds);
+        }
+    }
+
+    private final DirectoryIndex dest;
+    private final Listener listener;
+    private final ExecutorService pool;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final long started = System.nanoTime();
+    private final int total;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean cancelled;
+
+    /**
+     * @param total    profiles expected, for progress only
+     * @param listener may be null
+     */
+    public RestoreEngine(StorageFile profileDir, int total, int workers, Listener listener) {
+        this.dest = new DirectoryIndex(profileDir);
+        this.total = total;
+        this.listener = listener;
+        this.pool = Executors.newFixedThreadPool(workers);
+        this.maxInFlight = workers * 2;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Queues a profile for writing, waiting while too many are in flight. Ignored once cancelled.
+     *
+     * @param sha git blob sha of the content, null if unknown
+     */
+    public void submit(String fileName, String sha, Source source) throws InterruptedIOException {
+        if (cancelled) {
+            return;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("restore interrupted");
+        }
+        pool.execute(() -> {
+            try {
+                if (!cancelled) {
+                    write(fileName, sha, source);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void write(String fileName, String sha, Source source) {
+        try {
+            StorageFile installed = dest.find(fileName);
+            if (sha != null && installed != null && sha.equals(installedSha(installed))) {
+                skipped.incrementAndGet();
+            } else {
+                try (InputStream in = source.open()) {
+                    bytes.addAndGet(dest.findOrCreate("application/profile", fileName).write(in));
+                }
+                written.incrementAndGet();
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            logger.warning(String.format("%s: %s", fileName, e.getMessage()));
+        }
+        if (listener != null) {
+            listener.onProgress(snapshot());
+        }
+    }
+
+    private static String installedSha(StorageFile installed) {
+        try {
+            return GitBlob.sha(installed.map());
+        } catch (IOException e) {
+            return null; // rewritten then
+        }
+    }
+
+    /**
+     * Waits until every submitted profile has been written.
+     */
+    public void drain() throws InterruptedIOException {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("restore interrupted");
+        }
+    }
+
+    /**
+     * Stops writing; profiles already being written are completed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits for the submitted profiles and releases the workers.
+     */
+    public Result finish() {
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                logger.log(Level.FINE, String.format("waiting for %d writes", maxInFlight - inFlight.availablePermits()));
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        Result r = snapshot();
+        logger.info(String.format("Restored %d/%d profiles: %s", r.written + r.skipped, total, r));
+        return r;
+    }
+
+    private Result snapshot() {
+        Result r = new Result();
+        r.total = total;
+        r.written = written.get();
+        r.skipped = skipped.get();
+        r.failed = failed.get();
+        r.bytes = bytes.get();
+        r.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        r.cancelled = cancelled;
+        return r;
+    }
+}
@@ -0,0 +1,196 @@
+package cc.adward.de1;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.support.v4.provider.DocumentFile;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A document reached through the storage access framework, as the app sees the DE1 installation.
+ * Works on document uris directly: a listing is a single query that also yields the names and types
+ * of the children, where {@link DocumentFile} would query each child again for its name.
+ */
+class SafStorageFile extends StorageFile {
+
+    private static final String[] CHILD_COLUMNS = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE};
+
+    private final ContentResolver resolver;
+    private Uri uri; // a document under the granted tree
+    private String name; // null until queried
+    private String mimeType; // null until queried
+
+    private SafStorageFile(ContentResolver resolver, Uri uri, String name, String mimeType) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.name = name;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * @return null if {@code file} is null
+     */
+    public static SafStorageFile of(Context ctx, DocumentFile file) {
+        return file != null ? new SafStorageFile(ctx.getContentResolver(), file.getUri(), null, null) : null;
+    }
+
+    private Cursor query(String column) {
+        return resolver.query(uri, new String[]{column}, null, null, null);
+    }
+
+    private String queryString(String column) {
+        try (Cursor c = query(column)) {
+            return c != null && c.moveToFirst() && !c.isNull(0) ? c.getString(0) : null;
+        } catch (RuntimeException e) {
+            Log.w("saf-storage", e);
+            return null;
+        }
+    }
+
+    private long queryLong(String column) {
+        try (Cursor c = query(column)) {
+            return c != null && c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : 0;
+        } catch (RuntimeException e) {
+            Log.w("saf-storage", e);
+            return 0;
+        }
+    }
+
+    private String getMimeType() {
+        if (mimeType == null) {
+            mimeType = queryString(DocumentsContract.Document.COLUMN_MIME_TYPE);
+        }
+        return mimeType;
+    }
+
+    @Override
+    public String getName() {
+        if (name == null) {
+            name = queryString(DocumentsContract.Document.COLUMN_DISPLAY_NAME);
+        }
+        return name;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return DocumentsContract.Document.MIME_TYPE_DIR.equals(getMimeType());
+    }
+
+    @Override
+    public boolean isFile() {
+        String type = getMimeType();
+        return type != null && !type.isEmpty() && !DocumentsContract.Document.MIME_TYPE_DIR.equals(type);
+    }
+
+    @Override
+    public long length() {
+        return queryLong(DocumentsContract.Document.COLUMN_SIZE);
+    }
+
+    @Override
+    public long lastModified() {
+        return queryLong(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+    }
+
+    @Override
+    public StorageFile[] listFiles() {
+        List<StorageFile> files = new ArrayList<>();
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(uri, DocumentsContract.getDocumentId(uri));
+        try (Cursor c = resolver.query(children, CHILD_COLUMNS, null, null, null)) {
+            while (c != null && c.moveToNext()) {
+                Uri child = DocumentsContract.buildDocumentUriUsingTree(uri, c.getString(0));
+                files.add(new SafStorageFile(resolver, child, c.getString(1), c.getString(2)));
+            }
+        } catch (RuntimeException e) {
+            Log.w("saf-storage", e);
+        }
+        return files.toArray(new StorageFile[0]);
+    }
+
+    @Override
+    public StorageFile createFile(String mimeType, String name) {
+        return create(mimeType, name);
+    }
+
+    @Override
+    public StorageFile createDirectory(String name) {
+        return create(DocumentsContract.Document.MIME_TYPE_DIR, name);
+    }
+
+    private StorageFile create(String mimeType, String name) {
+        try {
+            Uri created = DocumentsContract.createDocument(resolver, uri, mimeType, name);
+            // the provider may adjust the name, it is queried when asked for
+            return created != null ? new SafStorageFile(resolver, created, null, mimeType) : null;
+        } catch (FileNotFoundException | RuntimeException e) {
+            Log.w("saf-storage", e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean delete() {
+        try {
+            return DocumentsContract.deleteDocument(resolver, uri);
+        } catch (FileNotFoundException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean renameTo(String name) {
+        try {
+            Uri renamed = DocumentsContract.renameDocument(resolver, uri, name);
+            if (renamed == null) {
+                return false;
+            }
+            uri = renamed;
+            this.name = null;
+            return true;
+        } catch (FileNotFoundException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + getName());
+        }
+        return in;
+    }
+
+    @Override
+    public OutputStream openOutputStream(boolean append) throws IOException {
+        OutputStream out = resolver.openOutputStream(uri, append ? "wa" : "wt");
+        if (out == null) {
+            throw new FileNotFoundException("Cannot open " + getName());
+        }
+        return out;
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+        ParcelFileDescriptor fd = resolver.openFileDescriptor(uri, "r");
+        if (fd == null) {
+            throw new FileNotFoundException("Cannot open " + getName());
+        }
+        // closing the channel closes the stream, which closes the descriptor
+        return new ParcelFileDescriptor.AutoCloseInputStream(fd).getChannel();
+    }
+}
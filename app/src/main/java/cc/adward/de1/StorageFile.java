@@ -0,0 +1,99 @@
+package cc.adward.de1;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file or directory of a DE1 installation, wherever it lives.
+ * Mirrors the parts of {@link android.support.v4.provider.DocumentFile} backups and restores use,
+ * so the same code runs through the storage access framework ({@link SafStorageFile})
+ * and on plain paths ({@link NioStorageFile}).
+ */
+abstract class StorageFile {
+
+    public abstract String getName();
+
+    public abstract boolean isDirectory();
+
+    public abstract boolean isFile();
+
+    public abstract long length();
+
+    public abstract long lastModified();
+
+    /**
+     * @return children of this directory, empty if it is not one
+     */
+    public abstract StorageFile[] listFiles();
+
+    /**
+     * @return the child named {@code name}, null if there is none
+     */
+    public StorageFile findFile(String name) {
+        for (StorageFile f : listFiles()) {
+            if (name.equals(f.getName())) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the new file, null if it cannot be created
+     */
+    public abstract StorageFile createFile(String mimeType, String name);
+
+    /**
+     * @return the new directory, null if it cannot be created
+     */
+    public abstract StorageFile createDirectory(String name);
+
+    public abstract boolean delete();
+
+    /**
+     * Renames this file within its directory.
+     */
+    public abstract boolean renameTo(String name);
+
+    public abstract InputStream openInputStream() throws IOException;
+
+    /**
+     * @param append keep the current content and write after it, instead of replacing it
+     */
+    public abstract OutputStream openOutputStream(boolean append) throws IOException;
+
+    /**
+     * Opens the file for positional reads. Closing the channel releases the file.
+     */
+    public abstract FileChannel openChannel() throws IOException;
+
+    /**
+     * Maps the whole file read-only; its content is read without being copied onto the heap.
+     */
+    public ByteBuffer map() throws IOException {
+        try (FileChannel ch = openChannel()) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    /**
+     * Replaces the content of this file with the rest of {@code in}.
+     *
+     * @return bytes written
+     */
+    public long write(InputStream in) throws IOException {
+        try (OutputStream out = openOutputStream(false)) {
+            return IOUtils.copyLarge(in, out);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
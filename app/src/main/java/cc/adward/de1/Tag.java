@@ -1,6 +1,8 @@
 package cc.adward.de1;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -11,6 +13,7 @@ public class Tag implements Serializable {
     private String sha;
     private String name;
     private long timestamp;
+    private String treeSha; // de1plus/profiles tree, null for tags recorded before trees were tracked
     private List<Profile> profiles;
 
     public Tag() {
@@ -58,11 +61,29 @@ public class Tag implements Serializable {
         this.timestamp = timestamp;
     }
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getTreeSha() {
+        return treeSha;
+    }
+
+    public void setTreeSha(String treeSha) {
+        this.treeSha = treeSha;
+    }
+
+    @JsonIgnore
     public List<Profile> getProfiles() {
         return profiles;
     }
 
+    @JsonProperty("profiles")
     public void setProfiles(List<Profile> profiles) {
         this.profiles = profiles;
     }
+
+    // profiles of a known tree live in ProfileLibrary.trees and are not written per tag
+    @JsonProperty("profiles")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<Profile> getUntrackedProfiles() {
+        return treeSha == null ? profiles : null;
+    }
 }
@@ -0,0 +1,161 @@
+package cc.adward.de1;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.client.HttpClient;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+/**
+ * Fetches profiles of a tag from its source tarball in a single transfer.
+ * The archive is inflated and walked as it streams in; only files directly under
+ * {@code de1plus/profiles/} are read, everything else is skipped.
+ */
+class TagArchive {
+
+    public static final String ARCHIVE_URL = "https://codeload.github.com/decentespresso/de1app/tar.gz/%s";
+    public static final String PROFILES_PREFIX = "de1plus/profiles/";
+
+    private static final Logger logger = Logger.getGlobal();
+    private static final int BLOCK = 512;
+
+    private final HttpClient http;
+
+    public TagArchive(HttpClient http) {
+        this.http = http;
+    }
+
+    /**
+     * @param wanted blob shas to keep, other profiles are dropped after hashing
+     * @return {profile_sha : content_bytes} of the wanted profiles found in the archive
+     */
+    public Map<String, byte[]> fetchProfiles(String tagSha, Set<String> wanted) throws IOException {
+        long started = System.nanoTime();
+        HttpResponse res = http.execute(new HttpGet(String.format(ARCHIVE_URL, tagSha)));
+        if (res.getStatusLine().getStatusCode() != 200) {
+            EntityUtils.consume(res.getEntity());
+            throw new IOException("Archive download failed: " + res.getStatusLine().getReasonPhrase());
+        }
+        Map<String, byte[]> found;
+        try (InputStream in = res.getEntity().getContent()) {
+            found = extractProfiles(new GZIPInputStream(in), wanted);
+        }
+        logger.info(String.format("%s: %d profiles from archive in %.2fs",
+                tagSha, found.size(), (System.nanoTime() - started) / 1e9));
+        return found;
+    }
+
+    static Map<String, byte[]> extractProfiles(InputStream tar, Set<String> wanted) throws IOException {
+        Map<String, byte[]> found = new HashMap<>();
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        while (true) {
+            if (IOUtils.read(tar, header) < BLOCK || isZero(header)) {
+                break; // end of archive
+            }
+            long size = parseOctal(header, 124, 12);
+            byte type = header[156];
+            long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+
+            if (type == 'x' || type == 'L') { // pax / gnu long name of the next entry
+                byte[] ext = IOUtils.toByteArray(tar, size);
+                IOUtils.skipFully(tar, padded - size);
+                longName = type == 'L' ? cString(ext, 0, ext.length) : paxPath(ext);
+                continue;
+            }
+
+            String name = longName != null ? longName : entryName(header);
+            longName = null;
+            String path = name.substring(name.indexOf('/') + 1); // drop the archive root directory
+            boolean profile = (type == '0' || type == 0)
+                    && path.startsWith(PROFILES_PREFIX)
+                    && path.indexOf('/', PROFILES_PREFIX.length()) < 0;
+            if (!profile) {
+                IOUtils.skipFully(tar, padded);
+                continue;
+            }
+
+            byte[] content = IOUtils.toByteArray(tar, size);
+            IOUtils.skipFully(tar, padded - size);
+            String sha = GitBlob.sha(content);
+            if (wanted.contains(sha)) {
+                found.put(sha, content);
+            }
+        }
+        return found;
+    }
+
+    private static String entryName(byte[] header) {
+        String name = cString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r';
+        String prefix = ustar ? cString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String paxPath(byte[] ext) {
+        // records of "<length> <key>=<value>\n", the length counting bytes, not characters
+        int pos = 0;
+        while (pos < ext.length) {
+            int space = pos;
+            int length = 0;
+            while (space < ext.length && ext[space] >= '0' && ext[space] <= '9') {
+                length = length * 10 + ext[space++] - '0';
+            }
+            if (space == pos || space >= ext.length || ext[space] != ' ' || length <= space - pos || pos + length > ext.length) {
+                break; // malformed
+            }
+            String record = new String(ext, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            pos += length;
+        }
+        return null;
+    }
+
+    private static String cString(byte[] buf, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && buf[end] != 0) {
+            ++end;
+        }
+        return new String(buf, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] buf, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            byte b = buf[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Malformed tar header!");
+            }
+            value = value * 8 + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
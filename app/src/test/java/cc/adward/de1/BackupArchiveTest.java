@@ -0,0 +1,116 @@
+package cc.adward.de1;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class BackupArchiveTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path profiles;
+    private BackupArchive archive;
+
+    @Before
+    public void setUp() throws IOException {
+        Path installation = tmp.newFolder("de1plus").toPath();
+        profiles = Files.createDirectory(installation.resolve("profiles"));
+        write("default.tcl", "profile_title Default");
+        write("blooming.tcl", "profile_title {Blooming espresso}");
+        write("copy_of_default.tcl", "profile_title Default");
+        archive = new BackupArchive(new NioStorageFile(installation));
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(profiles.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(profiles.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private RestoreEngine.Result restore(Backup b) {
+        return restore(archive, b);
+    }
+
+    private RestoreEngine.Result restore(BackupArchive from, Backup b) {
+        RestoreEngine engine = new RestoreEngine(new NioStorageFile(profiles), b.getProfileCount(), 2, null);
+        from.restoreFrom(b, engine, null);
+        return engine.finish();
+    }
+
+    @Test
+    public void restoresWhatWasBackedUp() throws IOException {
+        archive.newBackup(new NioStorageFile(profiles));
+        Backup b = archive.listBackups().get(0);
+        assertEquals(3, b.getProfileCount());
+
+        write("blooming.tcl", "profile_title {Edited}");
+        Files.delete(profiles.resolve("default.tcl"));
+        RestoreEngine.Result r = restore(b);
+
+        assertEquals(2, r.written);
+        assertEquals(1, r.skipped); // copy_of_default.tcl is unchanged
+        assertEquals("profile_title {Blooming espresso}", read("blooming.tcl"));
+        assertEquals("profile_title Default", read("default.tcl"));
+    }
+
+    @Test
+    public void listsBackupsFromCatalog() throws IOException {
+        archive.newBackup(new NioStorageFile(profiles));
+        Path installation = profiles.getParent();
+        assertTrue(Files.exists(installation.resolve(BackupArchive.BACKUP_DIRECTORY_NAME).resolve(BackupCatalog.CATALOG_FILE)));
+
+        BackupArchive reopened = new BackupArchive(new NioStorageFile(installation));
+        assertEquals(1, reopened.listBackups().size());
+        Backup first = reopened.listBackups().get(0);
+        assertEquals(2, first.getStoredShas().size()); // default.tcl and its copy share one content
+        assertEquals(3, first.listProfiles().size());
+
+        write("lungo.tcl", "profile_title Lungo");
+        Backup second = reopened.newBackup(new NioStorageFile(profiles));
+        assertEquals(4, second.getProfileCount());
+        assertEquals(1, second.getStoredShas().size()); // the rest found through the catalog
+        assertTrue(second.refersTo(first.getName()));
+    }
+
+    @Test
+    public void deletingOlderBackupKeepsNewerRestorable() throws IOException {
+        NioStorageFile profileDir = new NioStorageFile(profiles);
+        Backup older = archive.newBackup(profileDir);
+        write("lungo.tcl", "profile_title Lungo");
+        Backup newer = archive.newBackup(profileDir); // refers to older for all but lungo.tcl
+        write("ristretto.tcl", "profile_title Ristretto");
+        archive.newBackup(profileDir); // refers to older and newer
+        assertTrue(newer.refersTo(older.getName()));
+
+        assertTrue(archive.deleteBackup(older));
+        Path backupDir = profiles.getParent().resolve(BackupArchive.BACKUP_DIRECTORY_NAME);
+        assertFalse(Files.exists(backupDir.resolve(older.getName())));
+        for (Backup b : archive.listBackups()) {
+            assertFalse(b.refersTo(older.getName()));
+        }
+
+        for (String name : new String[]{"default.tcl", "blooming.tcl", "copy_of_default.tcl", "lungo.tcl", "ristretto.tcl"}) {
+            Files.delete(profiles.resolve(name));
+        }
+        BackupArchive reopened = new BackupArchive(new NioStorageFile(profiles.getParent()));
+        assertEquals(2, reopened.listBackups().size());
+        RestoreEngine.Result r = restore(reopened, reopened.listBackups().get(1));
+        assertEquals(5, r.written);
+        assertEquals(0, r.failed);
+        assertEquals("profile_title Default", read("copy_of_default.tcl"));
+        assertEquals("profile_title {Blooming espresso}", read("blooming.tcl"));
+        assertEquals("profile_title Lungo", read("lungo.tcl"));
+        assertEquals("profile_title Ristretto", read("ristretto.tcl"));
+    }
+}
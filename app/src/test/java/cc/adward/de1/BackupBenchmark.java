@@ -0,0 +1,109 @@
+package cc.adward.de1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backup containers written from and extracted to a plain directory, standing in for the
+ * storage access framework the app goes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BackupBenchmark {
+
+    @Param({"100", "1000"})
+    public int profiles;
+
+    private Path profileDir;
+    private Path restoreDir;
+    private Path container;
+    private Path scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        ProfileLibrary lib = ProfileLibrary.load(ByteBuffer.wrap(BenchmarkFixtures.library()));
+        profileDir = BenchmarkFixtures.profileFolder(BenchmarkFixtures.profiles(lib), profiles);
+        restoreDir = Files.createTempDirectory("de1-restore");
+        container = Files.createTempFile("de1-backup", BackupContainer.EXT);
+        scratch = Files.createTempFile("de1-backup", BackupContainer.EXT);
+        write(container);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.delete(profileDir);
+        BenchmarkFixtures.delete(restoreDir);
+        Files.delete(container);
+        Files.delete(scratch);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return write(scratch);
+    }
+
+    @Benchmark
+    public int readIndex() throws IOException {
+        try (FileChannel ch = FileChannel.open(container, StandardOpenOption.READ)) {
+            return BackupContainer.readIndex(ch).size();
+        }
+    }
+
+    @Benchmark
+    public long extract() throws IOException {
+        long bytes = 0;
+        try (FileChannel ch = FileChannel.open(container, StandardOpenOption.READ)) {
+            for (BackupContainer.Entry e : BackupContainer.readIndex(ch)) {
+                try (InputStream in = BackupContainer.open(ch, e)) {
+                    bytes += Files.copy(in, restoreDir.resolve(e.name), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Backs up {@link #profileDir} the way {@link BackupArchive#newBackup} does: hashed, then deflated.
+     */
+    private int write(Path target) throws IOException {
+        List<BackupContainer.Entry> index;
+        try (OutputStream out = Files.newOutputStream(target);
+             BackupContainer.Writer w = new BackupContainer.Writer(out);
+             DirectoryStream<Path> dir = Files.newDirectoryStream(profileDir)) {
+            for (Path p : dir) {
+                byte[] content = Files.readAllBytes(p);
+                w.add(p.getFileName().toString(), GitBlob.sha(content), new ByteArrayInputStream(content));
+            }
+            index = w.getEntries();
+        }
+        return index.size();
+    }
+}
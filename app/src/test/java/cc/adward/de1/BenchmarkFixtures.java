@@ -0,0 +1,64 @@
+package cc.adward.de1;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inputs shared by the benchmarks: the library shipped with the app and profile folders made up from it.
+ */
+class BenchmarkFixtures {
+
+    // relative to the module directory, where gradle runs the benchmarks
+    public static final String LIBRARY = System.getProperty("de1.benchmark.library", "src/main/res/raw/profiles_de1lib");
+
+    private BenchmarkFixtures() {
+        // intentionally empty
+    }
+
+    public static byte[] library() throws IOException {
+        return Files.readAllBytes(Paths.get(LIBRARY));
+    }
+
+    /**
+     * @return {blob_sha : content} of every distinct profile in {@code lib}
+     */
+    public static Map<String, byte[]> profiles(ProfileLibrary lib) throws IOException {
+        Map<String, byte[]> profiles = new LinkedHashMap<>();
+        for (Tag t : lib.tagsAsList()) {
+            for (Profile p : t.getProfiles()) {
+                if (!profiles.containsKey(p.getSha())) {
+                    try (InputStream in = lib.getInputStream(p)) {
+                        profiles.put(p.getSha(), IOUtils.toByteArray(in));
+                    }
+                }
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Fills a new directory with {@code count} profile files, cycling through {@code profiles}.
+     */
+    public static Path profileFolder(Map<String, byte[]> profiles, int count) throws IOException {
+        Path dir = Files.createTempDirectory("de1-profiles");
+        List<byte[]> contents = new ArrayList<>(profiles.values());
+        for (int i = 0; i < count; ++i) {
+            Files.write(dir.resolve(String.format("profile_%04d.tcl", i)), contents.get(i % contents.size()));
+        }
+        return dir;
+    }
+
+    public static void delete(Path dir) throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+}
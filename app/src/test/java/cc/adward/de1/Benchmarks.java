@@ -0,0 +1,34 @@
+package cc.adward.de1;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks with allocation profiling and keeps the results as json, to be compared
+ * between releases. Arguments are JMH's own, e.g. a regex selecting benchmarks;
+ * {@code ./gradlew :app:benchmark -Pjmh="Parsing"}.
+ */
+public class Benchmarks {
+
+    public static final String RESULTS_FILE = "build/reports/jmh/results.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ChainedOptionsBuilder opts = new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(RESULTS_FILE);
+        if (cmd.getIncludes().isEmpty()) {
+            opts.include(Benchmarks.class.getPackage().getName() + ".*Benchmark");
+        }
+        new File(RESULTS_FILE).getParentFile().mkdirs();
+        new Runner(opts.build()).run();
+    }
+}
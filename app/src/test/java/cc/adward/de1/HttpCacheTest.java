@@ -0,0 +1,103 @@
+package cc.adward.de1;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.kohsuke.github.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.msebera.android.httpclient.impl.client.HttpClientBuilder;
+
+import static org.junit.Assert.*;
+
+public class HttpCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private volatile String body = "[{\"tag_name\": \"202105282145\"}]";
+    private final AtomicInteger served = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/releases", ex -> {
+            String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+            ex.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+                ex.sendResponseHeaders(304, -1);
+            } else {
+                byte[] b = body.getBytes(StandardCharsets.UTF_8);
+                ex.sendResponseHeaders(200, b.length);
+                try (OutputStream out = ex.getResponseBody()) {
+                    out.write(b);
+                }
+                served.incrementAndGet();
+            }
+            ex.close();
+        });
+        server.createContext("/limited", ex -> {
+            ex.sendResponseHeaders(429, -1);
+            ex.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/releases";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void revalidatesWithEtag() throws IOException {
+        HttpCache cache = new HttpCache(tmp.getRoot(), HttpClientBuilder.create().build());
+
+        HttpCache.Response first = cache.get(url);
+        assertFalse(first.isNotModified());
+        first.setNote("202105282145");
+
+        HttpCache.Response second = cache.get(url);
+        assertTrue(second.isNotModified());
+        assertEquals("202105282145", second.getNote());
+        assertEquals(body, new String(second.body(), StandardCharsets.UTF_8));
+        assertEquals(1, served.get());
+    }
+
+    @Test
+    public void survivesRestartAndRefetchesChanges() throws IOException {
+        new HttpCache(tmp.getRoot(), HttpClientBuilder.create().build()).get(url);
+
+        HttpCache reopened = new HttpCache(tmp.getRoot(), HttpClientBuilder.create().build());
+        assertTrue(reopened.get(url).isNotModified());
+
+        body = "[]";
+        HttpCache.Response changed = reopened.get(url);
+        assertFalse(changed.isNotModified());
+        assertNull(changed.getNote());
+        assertEquals("[]", new String(changed.body(), StandardCharsets.UTF_8));
+        assertEquals(2, served.get());
+    }
+
+    @Test
+    public void reportsStatusOfFailures() throws IOException {
+        HttpCache cache = new HttpCache(tmp.getRoot(), HttpClientBuilder.create().build());
+        try {
+            cache.get(url.replace("/releases", "/limited"));
+            fail();
+        } catch (HttpException e) {
+            assertEquals(429, e.getResponseCode());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class LegacyContentTest {
+
+    private static byte[] legacyLibrary(String... contents) throws IOException {
+        StringBuilder cache = new StringBuilder();
+        for (String content : contents) {
+            byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+            cache.append(cache.length() == 0 ? "" : ",")
+                    .append(String.format("\"%s\": \"%s\"", GitBlob.sha(raw), Base64.getEncoder().encodeToString(raw)));
+        }
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gz)) {
+            out.write(String.format("{\"version\": 202001010000, \"tags\": {}, \"contentCache\": {%s}}", cache)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return gz.toByteArray();
+    }
+
+    @Test
+    public void decodesEveryContentInOnePass() throws IOException {
+        byte[] gz = legacyLibrary("profile_title Default\n", "profile_title Lungo\n", "profile_title Ristretto\n");
+        AtomicInteger opened = new AtomicInteger();
+        ProfileLibrary lib = ProfileLibrary.loadMetadata(() -> {
+            opened.incrementAndGet();
+            return new ByteArrayInputStream(gz);
+        });
+        int loading = opened.get();
+
+        for (String content : new String[]{"profile_title Lungo\n", "profile_title Default\n", "profile_title Ristretto\n"}) {
+            byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(raw, lib.getContent(GitBlob.sha(raw)));
+        }
+        assertNull(lib.getContent(GitBlob.sha("missing".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(loading + 1, opened.get()); // every content at once
+    }
+}
@@ -0,0 +1,63 @@
+package cc.adward.de1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LibraryBenchmark {
+
+    private byte[] library;
+    private ProfileLibrary lib;
+
+    @Setup
+    public void setup() throws IOException {
+        library = BenchmarkFixtures.library();
+        lib = ProfileLibrary.load(ByteBuffer.wrap(library));
+    }
+
+    @Benchmark
+    public ProfileLibrary load() throws IOException {
+        return ProfileLibrary.load(ByteBuffer.wrap(library));
+    }
+
+    @Benchmark
+    public int save() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(library.length);
+        lib.save(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public List<Tag> tagsAsList() {
+        return lib.tagsAsList();
+    }
+
+    @Benchmark
+    public int buildSearchIndex() throws IOException {
+        return new ProfileSearchIndex().sync(lib);
+    }
+
+    @Benchmark
+    public ProfileHistory buildHistory() {
+        return ProfileHistory.build(lib);
+    }
+}
@@ -0,0 +1,98 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LibraryFileTest {
+
+    private static byte[] content(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static LibraryFile.Metadata metadata(long version, String... tagNames) {
+        Map<String, Tag> tags = new HashMap<>();
+        for (String name : tagNames) {
+            tags.put(name + "-sha", new Tag(name + "-sha", name, new Date(version)));
+        }
+        return new LibraryFile.Metadata(version, tags, new HashMap<>());
+    }
+
+    private static byte[] write(LibraryFile.Metadata metadata, Map<String, byte[]> fresh, List<LibraryFile> previous)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LibraryFile.write(out, metadata, fresh, previous);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        Map<String, byte[]> fresh = new HashMap<>();
+        byte[] blooming = content("profile_title {Blooming espresso}\n");
+        byte[] empty = new byte[0];
+        fresh.put(GitBlob.sha(blooming), blooming);
+        fresh.put(GitBlob.sha(empty), empty);
+
+        LibraryFile file = LibraryFile.open(ByteBuffer.wrap(write(metadata(202106010000L, "v1.0"), fresh, Collections.emptyList())));
+        assertEquals(Long.valueOf(202106010000L), file.getMetadata().version);
+        assertEquals("v1.0", file.getMetadata().tags.get("v1.0-sha").getName());
+        assertEquals(2, file.size());
+        assertArrayEquals(blooming, file.read(GitBlob.sha(blooming)));
+        assertArrayEquals(empty, file.read(GitBlob.sha(empty)));
+        assertNull(file.read(GitBlob.sha(content("missing"))));
+        assertFalse(file.contains("not a sha"));
+    }
+
+    @Test
+    public void carriesBlobsOverFromPreviousFiles() throws IOException {
+        byte[] oldBlob = content("profile_title Default\n");
+        byte[] newBlob = content("profile_title {Default v2}\n");
+        LibraryFile previous = LibraryFile.open(ByteBuffer.wrap(write(metadata(1L, "v1.0"),
+                Collections.singletonMap(GitBlob.sha(oldBlob), oldBlob), Collections.emptyList())));
+
+        byte[] next = write(metadata(2L, "v1.0", "v1.1"),
+                Collections.singletonMap(GitBlob.sha(newBlob), newBlob), Collections.singletonList(previous));
+        LibraryFile file = LibraryFile.open(ByteBuffer.wrap(next));
+        List<String> shas = Arrays.asList(GitBlob.sha(oldBlob), GitBlob.sha(newBlob));
+        Collections.sort(shas);
+        assertEquals(shas, file.shas());
+        assertArrayEquals(oldBlob, file.read(GitBlob.sha(oldBlob)));
+        assertArrayEquals(newBlob, file.read(GitBlob.sha(newBlob)));
+        assertEquals(next.length, file.length());
+    }
+
+    @Test
+    public void rejectsIndexPointingOutsideContent() throws IOException {
+        byte[] blob = content("profile_title Default\n");
+        byte[] bytes = write(metadata(1L), Collections.singletonMap(GitBlob.sha(blob), blob), Collections.emptyList());
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int offsetField = 24 + buf.getInt(8) + 20; // header, metadata, then the sha of the only entry
+        buf.putLong(offsetField, 1L << 40);
+
+        LibraryFile file = LibraryFile.open(buf);
+        try {
+            file.read(GitBlob.sha(blob));
+            fail();
+        } catch (IOException expected) {
+            // not IllegalArgumentException from the buffer
+        }
+
+        try {
+            LibraryFile.open(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+            fail();
+        } catch (IOException expected) {
+            // truncated content
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LibraryReleasesTest {
+
+    private static String release(long version, boolean prerelease, String... assets) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : assets) {
+            sb.append(sb.length() == 0 ? "" : ",")
+                    .append(String.format("{\"name\": \"%s\", \"browser_download_url\": \"https://dl/%d/%s\"}", name, version, name));
+        }
+        return String.format("{\"tag_name\": \"%d\", \"prerelease\": %b, \"assets\": [%s]}", version, prerelease, sb);
+    }
+
+    private static List<LibraryReleases.Release> parse(String... releases) throws Exception {
+        return LibraryReleases.parse(("[" + String.join(",", releases) + "]").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void picksFullLibraryByName() throws Exception {
+        List<LibraryReleases.Release> releases = parse(
+                release(3, true, "delta_1_2.de1lib", "notes.txt", "profiles.de1lib", "delta_2_3.de1lib"),
+                release(2, true, "profiles.json.gz"),
+                release(1, true, "notes.txt"),
+                release(9, false, "profiles.de1lib"));
+
+        assertEquals(2, releases.size()); // no full library in 1, 9 is not a pre-release
+        LibraryReleases.Release latest = releases.get(0);
+        assertEquals("https://dl/3/profiles.de1lib", latest.fullUrl);
+        assertEquals(Collections.singleton(2L), latest.deltas.keySet()); // delta_1_2 does not lead to 3
+        assertEquals("https://dl/2/profiles.json.gz", releases.get(1).fullUrl);
+    }
+
+    @Test
+    public void chainsDeltasTowardsLatest() throws Exception {
+        List<LibraryReleases.Release> releases = parse(
+                release(4, true, "profiles.de1lib", "delta_3_4.de1lib", "delta_1_4.de1lib"),
+                release(3, true, "profiles.de1lib", "delta_2_3.de1lib"),
+                release(2, true, "profiles.de1lib", "delta_1_2.de1lib"));
+        LibraryReleases.Release latest = releases.get(0);
+
+        // the farthest hop is taken
+        assertEquals(Collections.singletonList("https://dl/4/delta_1_4.de1lib"), LibraryReleases.findDeltaChain(releases, 1, latest));
+        assertEquals(Arrays.asList("https://dl/3/delta_2_3.de1lib", "https://dl/4/delta_3_4.de1lib"),
+                LibraryReleases.findDeltaChain(releases, 2, latest));
+        assertTrue(LibraryReleases.findDeltaChain(releases, 4, latest).isEmpty());
+        assertNull(LibraryReleases.findDeltaChain(releases, 0, latest));
+    }
+
+    private static ProfileLibrary library(long version, int tagCount) {
+        Map<String, Tag> tags = new HashMap<>();
+        Map<String, byte[]> contents = new HashMap<>();
+        for (int i = 1; i <= tagCount; ++i) {
+            byte[] content = ("profile_title {Default " + i + "}\n").getBytes(StandardCharsets.UTF_8);
+            Tag t = new Tag("tag" + i, "v1." + i, new Date(i * 1000L));
+            t.setProfiles(new ArrayList<>(Collections.singletonList(new Profile(GitBlob.sha(content), "default.tcl", "Default " + i, null))));
+            tags.put(t.getSha(), t);
+            contents.put(GitBlob.sha(content), content);
+        }
+        return new ProfileLibrary(version, tags, contents);
+    }
+
+    private static ProfileLibrary stored(ProfileLibrary lib) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lib.save(out);
+        return ProfileLibrary.load(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test
+    public void appliesDeltaToCopy() throws IOException {
+        ProfileLibrary installed = stored(library(1, 1));
+        ProfileLibrary latest = library(2, 2);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        latest.saveDelta(delta, installed);
+
+        ProfileLibrary updated = installed.copy();
+        updated.applyDelta(new ByteArrayInputStream(delta.toByteArray()));
+        assertEquals(Long.valueOf(2), updated.getVersion());
+        assertEquals(2, updated.tagsAsList().size());
+        Profile added = updated.tagsAsList().get(0).getProfiles().get(0);
+        assertEquals("profile_title {Default 2}\n", new String(updated.getContent(added.getSha()), StandardCharsets.UTF_8));
+        assertTrue(updated.canSaveJournal());
+
+        assertEquals(Long.valueOf(1), installed.getVersion());
+        assertEquals(1, installed.tagsAsList().size());
+        assertNull(installed.getContent(added.getSha()));
+    }
+
+    @Test
+    public void rejectsDeltaForAnotherVersion() throws IOException {
+        ProfileLibrary installed = stored(library(1, 1));
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        library(3, 2).saveDelta(delta, library(2, 1));
+
+        try {
+            installed.applyDelta(new ByteArrayInputStream(delta.toByteArray()));
+            fail();
+        } catch (IOException expected) {
+            // v2 delta on v1
+        }
+        assertEquals(Long.valueOf(1), installed.getVersion());
+        assertEquals(1, installed.tagsAsList().size());
+    }
+}
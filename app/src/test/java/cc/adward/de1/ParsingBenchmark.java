@@ -0,0 +1,86 @@
+package cc.adward.de1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the title of every distinct profile of the shipped library per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParsingBenchmark {
+
+    private byte[][] profiles;
+
+    @Setup
+    public void setup() throws IOException {
+        profiles = BenchmarkFixtures.profiles(ProfileLibrary.load(ByteBuffer.wrap(BenchmarkFixtures.library())))
+                .values().toArray(new byte[0][]);
+    }
+
+    @Benchmark
+    public void resolveProfileName(Blackhole bh) {
+        for (byte[] p : profiles) {
+            bh.consume(Profile.resolveProfileName(p));
+        }
+    }
+
+    @Benchmark
+    public void resolveProfileNameFromStream(Blackhole bh) {
+        for (byte[] p : profiles) {
+            bh.consume(Profile.resolveProfileName(new ByteArrayInputStream(p)));
+        }
+    }
+
+    @Benchmark
+    public void parseMetadata(Blackhole bh) {
+        for (byte[] p : profiles) {
+            bh.consume(ProfileMetadata.parse(p));
+        }
+    }
+
+    /**
+     * The line scanner titles were resolved with before {@link ProfileMetadata}, as a baseline.
+     */
+    @Benchmark
+    public void scannerBaseline(Blackhole bh) {
+        for (byte[] p : profiles) {
+            bh.consume(scanTitle(new ByteArrayInputStream(p)));
+        }
+    }
+
+    private static String scanTitle(InputStream in) {
+        try (Scanner sc = new Scanner(in, "UTF-8")) {
+            while (sc.hasNextLine()) {
+                String line = sc.nextLine();
+                if (line.startsWith("profile_title")) {
+                    int firstSpace = line.indexOf(' ');
+                    return line.substring(firstSpace)
+                            .replace('{', ' ')
+                            .replace('}', ' ').trim();
+                }
+            }
+        }
+        return "?";
+    }
+}
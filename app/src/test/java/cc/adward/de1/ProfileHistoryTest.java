@@ -0,0 +1,128 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ProfileHistoryTest {
+
+    private final Map<String, Tag> tags = new HashMap<>();
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final ProfileLibrary lib = new ProfileLibrary(202106010000L, tags, contents);
+
+    private Profile profile(String sha, String fileName, String content) {
+        contents.put(sha, content.getBytes(StandardCharsets.UTF_8));
+        return new Profile(sha, fileName, null, null);
+    }
+
+    private void tag(String sha, String name, long timestamp, Profile... profiles) {
+        Tag t = new Tag(sha, name, new Date(timestamp));
+        t.setProfiles(new ArrayList<>(Arrays.asList(profiles)));
+        tags.put(sha, t);
+    }
+
+    @Test
+    public void recordsOnlyChanges() {
+        Profile d1 = profile("d1", "default.tcl", "profile_title Default\nespresso_temperature 92\n");
+        Profile d2 = profile("d2", "default.tcl", "profile_title Default\nespresso_temperature 90\n");
+        Profile gone = profile("g1", "gone.tcl", "profile_title Gone\n");
+        tag("t1", "v1.0", 1000, d1, gone);
+        tag("t2", "v1.1", 2000, d1, gone);
+        tag("t3", "v1.2", 3000, d2);
+
+        ProfileHistory history = lib.getHistory();
+        List<ProfileHistory.Version> versions = history.get("default.tcl");
+        assertEquals(2, versions.size());
+        assertEquals("v1.0", versions.get(0).getTagName());
+        assertEquals("d2", versions.get(1).getSha());
+
+        versions = history.get("gone.tcl");
+        assertEquals(2, versions.size());
+        assertTrue(versions.get(1).isRemoved());
+        assertTrue(history.get("missing.tcl").isEmpty());
+        assertSame(history, lib.getHistory());
+
+        tag("t4", "v1.3", 4000, d1);
+        assertEquals(3, lib.getHistory().get("default.tcl").size());
+    }
+
+    @Test
+    public void recordsRemovalAndReAddition() {
+        Profile d1 = profile("d1", "default.tcl", "profile_title Default\n");
+        Profile l1 = profile("l1", "lungo.tcl", "profile_title Lungo\n");
+        tag("t1", "v1.0", 1000, d1, l1);
+        tag("t2", "v1.1", 2000, d1);
+        tag("t3", "v1.2", 3000, d1);
+        tag("t4", "v1.3", 4000, d1, l1); // back unchanged
+
+        List<ProfileHistory.Version> versions = lib.getHistory().get("lungo.tcl");
+        assertEquals(3, versions.size());
+        assertEquals("v1.1", versions.get(1).getTagName());
+        assertTrue(versions.get(1).isRemoved());
+        assertEquals("v1.3", versions.get(2).getTagName());
+        assertEquals("l1", versions.get(2).getSha());
+        assertEquals(1, lib.getHistory().get("default.tcl").size());
+    }
+
+    @Test
+    public void diffsLines() throws IOException {
+        profile("a", "default.tcl", "profile_title Default\nespresso_temperature 92\nauthor Decent\n");
+        profile("b", "default.tcl", "profile_title Default\nespresso_temperature 90\nauthor Decent\nbeverage_type espresso\n");
+
+        List<ProfileDiff.Line> lines = lib.diff("a", "b");
+        List<String> changed = new ArrayList<>();
+        for (ProfileDiff.Line l : lines) {
+            if (l.getOp() != ProfileDiff.Op.SAME) {
+                changed.add(l.toString());
+            }
+        }
+        assertEquals(Arrays.asList("-espresso_temperature 92", "+espresso_temperature 90", "+beverage_type espresso"), changed);
+        assertSame(lines, lib.diff("a", "b"));
+
+        assertEquals(4, lib.diff(null, "a").size()); // trailing newline leaves an empty last line
+        assertEquals(ProfileDiff.Op.ADDED, lib.diff(null, "a").get(0).getOp());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDiffs() throws IOException {
+        List<String> reads = new ArrayList<>();
+        ProfileDiff diffs = new ProfileDiff(sha -> {
+            reads.add(sha);
+            return ("profile_title " + sha + "\n").getBytes(StandardCharsets.UTF_8);
+        }, 2);
+
+        List<ProfileDiff.Line> ab = diffs.diff("a", "b");
+        diffs.diff("b", "c");
+        assertSame(ab, diffs.diff("a", "b")); // now the most recently used
+        assertEquals(4, reads.size());
+
+        diffs.diff("c", "d"); // evicts b..c
+        assertSame(ab, diffs.diff("a", "b"));
+        assertEquals(6, reads.size());
+        diffs.diff("b", "c"); // evicts c..d
+        assertEquals(8, reads.size());
+        diffs.diff("c", "d"); // evicts a..b
+        assertEquals(10, reads.size());
+        assertNotSame(ab, diffs.diff("a", "b"));
+        assertEquals(12, reads.size());
+    }
+
+    @Test
+    public void diffsAroundCommonHeadAndTail() {
+        List<ProfileDiff.Line> lines = ProfileDiff.diff(Arrays.asList("a", "b", "c", "d"), Arrays.asList("a", "c", "x", "d"));
+        List<String> rendered = new ArrayList<>();
+        for (ProfileDiff.Line l : lines) {
+            rendered.add(l.toString());
+        }
+        assertEquals(Arrays.asList(" a", "-b", " c", "+x", " d"), rendered);
+    }
+}
@@ -0,0 +1,89 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class ProfileLibraryJournalTest {
+
+    private static byte[] snapshot(long version) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ProfileLibrary(version, new HashMap<>(), new HashMap<>()).save(out);
+        return out.toByteArray();
+    }
+
+    private static Profile addTag(ProfileLibrary lib, int i) throws IOException {
+        byte[] content = ("profile_title {Default " + i + "}\n").getBytes(StandardCharsets.UTF_8);
+        Tag t = new Tag("tag" + i, "v1." + i, new Date(i * 1000L));
+        Profile p = new Profile(GitBlob.sha(content), "default.tcl", "Default " + i, null);
+        t.setProfiles(new ArrayList<>(Collections.singletonList(p)));
+        // short of update(), a tag joins a library through a delta
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        ProfileLibrary source = new ProfileLibrary(lib.getVersion() + 1, Collections.singletonMap(t.getSha(), t),
+                Collections.singletonMap(p.getSha(), content));
+        source.saveDelta(delta, new ProfileLibrary(lib.getVersion(), new HashMap<>(), new HashMap<>()));
+        lib.applyDelta(new ByteArrayInputStream(delta.toByteArray()));
+        return p;
+    }
+
+    /**
+     * @return the journal after appending one segment per tag
+     */
+    private static byte[] journal(ProfileLibrary lib, int... tags) throws IOException {
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        for (int i : tags) {
+            addTag(lib, i);
+            assertTrue(lib.saveJournal(journal));
+        }
+        assertFalse(lib.saveJournal(journal)); // nothing new
+        return journal.toByteArray();
+    }
+
+    @Test
+    public void replaysAppendedSegments() throws IOException {
+        byte[] snapshot = snapshot(1);
+        ProfileLibrary lib = ProfileLibrary.load(ByteBuffer.wrap(snapshot));
+        byte[] journal = journal(lib, 1, 2);
+
+        ProfileLibrary replayed = ProfileLibrary.load(ByteBuffer.wrap(snapshot), ByteBuffer.wrap(journal));
+        assertEquals(lib.getVersion(), replayed.getVersion());
+        assertEquals(Arrays.asList("v1.2", "v1.1"), Arrays.asList(replayed.tagsAsList().get(0).getName(), replayed.tagsAsList().get(1).getName()));
+        Profile p = replayed.tagsAsList().get(0).getProfiles().get(0);
+        assertEquals("profile_title {Default 2}\n", new String(replayed.getContent(p.getSha()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void discardsTornFinalSegment() throws IOException {
+        byte[] snapshot = snapshot(1);
+        ProfileLibrary lib = ProfileLibrary.load(ByteBuffer.wrap(snapshot));
+        byte[] journal = journal(lib, 1, 2);
+
+        ProfileLibrary replayed = ProfileLibrary.load(ByteBuffer.wrap(snapshot),
+                ByteBuffer.wrap(Arrays.copyOf(journal, journal.length - 3)));
+        assertEquals(1, replayed.tagsAsList().size());
+        assertEquals("v1.1", replayed.tagsAsList().get(0).getName());
+        assertTrue(replayed.canSaveJournal());
+    }
+
+    @Test
+    public void discardsJournalOfAnotherSnapshot() throws IOException {
+        ProfileLibrary lib = ProfileLibrary.load(ByteBuffer.wrap(snapshot(1)));
+        byte[] journal = journal(lib, 1);
+
+        // the snapshot was replaced, the journal left behind was written against v1
+        ProfileLibrary replayed = ProfileLibrary.load(ByteBuffer.wrap(snapshot(5)), ByteBuffer.wrap(journal));
+        assertEquals(Long.valueOf(5), replayed.getVersion());
+        assertTrue(replayed.tagsAsList().isEmpty());
+    }
+}
@@ -0,0 +1,58 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ProfileMetadataTest {
+
+    private static byte[] profile(String... lines) {
+        return String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void resolvesBracedAndBareTitles() {
+        assertEquals("Default", Profile.resolveProfileName(profile("advanced_shot {}", "profile_title {Default}")));
+        assertEquals("Blooming espresso", Profile.resolveProfileName(profile("profile_title Blooming espresso")));
+        assertEquals("Gentle & sweet", Profile.resolveProfileName(profile("profile_title \"Gentle & sweet\"")));
+        assertEquals("?", Profile.resolveProfileName(profile("author Decent", "espresso_temperature 92.0")));
+        assertEquals("?", Profile.resolveProfileName(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void keepsNestedBracesAndUtf8() {
+        assertEquals("Caf\u00e9 {cr\u00e8me} \u2615", Profile.resolveProfileName(profile("profile_title {Caf\u00e9 {cr\u00e8me} \u2615}")));
+    }
+
+    @Test
+    public void skipsValuesSpanningLines() {
+        byte[] p = profile(
+                "profile_notes {Use it like",
+                "profile_title {not this one}",
+                "with {nested} braces}",
+                "profile_title {Londinium}");
+        assertEquals("Londinium", Profile.resolveProfileName(p));
+    }
+
+    @Test
+    public void parsesHeader() {
+        ByteBuffer buf = ByteBuffer.wrap(profile(
+                "advanced_shot {{exit_if 1 name preinfusion}}",
+                "author Decent",
+                "beverage_type espresso",
+                "profile_notes {An easy profile.}",
+                "profile_title {Best practice}",
+                "settings_profile_type settings_2c"));
+        ProfileMetadata m = ProfileMetadata.parse(buf);
+        assertEquals("Best practice", m.getTitle());
+        assertEquals("Decent", m.getAuthor());
+        assertEquals("espresso", m.getBeverageType());
+        assertEquals("An easy profile.", m.getNotes());
+        assertEquals("settings_2c", m.getProfileType());
+        assertEquals(0, buf.position());
+    }
+}
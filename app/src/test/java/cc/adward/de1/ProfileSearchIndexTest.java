@@ -0,0 +1,82 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ProfileSearchIndexTest {
+
+    private final Map<String, Tag> tags = new HashMap<>();
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final ProfileLibrary lib = new ProfileLibrary(202106010000L, tags, contents);
+
+    private Profile profile(String sha, String fileName, String title, String body) {
+        contents.put(sha, ("profile_title {" + title + "}\n" + body).getBytes(StandardCharsets.UTF_8));
+        return new Profile(sha, fileName, title, null);
+    }
+
+    private Tag tag(String sha, String name, long timestamp, Profile... profiles) {
+        Tag t = new Tag(sha, name, new Date(timestamp));
+        t.setProfiles(new ArrayList<>(Arrays.asList(profiles)));
+        tags.put(sha, t);
+        return t;
+    }
+
+    @Test
+    public void findsByPrefixAcrossTags() throws IOException {
+        Profile blooming = profile("b1", "blooming_espresso.tcl", "Blooming espresso", "author Decent");
+        Profile londinium = profile("l1", "londinium.tcl", "Londinium", "author {Decent} beverage_type espresso");
+        tag("t1", "v1.0", 1000, blooming, londinium);
+        tag("t2", "v1.1", 2000, blooming, londinium);
+
+        ProfileSearchIndex index = lib.getSearchIndex();
+        assertEquals(2, index.size()); // one entry per content
+
+        List<ProfileSearchIndex.Hit> hits = index.search("bloom", 10);
+        assertEquals(1, hits.size());
+        assertEquals("Blooming espresso", hits.get(0).getProfileName());
+        assertEquals("v1.1", hits.get(0).getRefs().get(0).getValue0().getName());
+        assertEquals(2, hits.get(0).getRefs().size());
+
+        // a title match ranks above a content match
+        hits = index.search("espresso", 10);
+        assertEquals(Arrays.asList("Blooming espresso", "Londinium"),
+                Arrays.asList(hits.get(0).getProfileName(), hits.get(1).getProfileName()));
+        assertTrue(index.search("espresso decent", 10).size() == 2);
+        assertTrue(index.search("espresso missing", 10).isEmpty());
+    }
+
+    @Test
+    public void toleratesTypos() throws IOException {
+        tag("t1", "v1.0", 1000, profile("l1", "londinium.tcl", "Londinium", ""));
+        assertEquals("Londinium", lib.getSearchIndex().search("londinum", 10).get(0).getProfileName());
+        assertTrue(lib.getSearchIndex().search("lon dinum", 10).isEmpty());
+    }
+
+    @Test
+    public void indexesOnlyNewTags() throws IOException {
+        Profile blooming = profile("b1", "blooming_espresso.tcl", "Blooming espresso", "");
+        tag("t1", "v1.0", 1000, blooming);
+        ProfileSearchIndex index = lib.getSearchIndex();
+
+        Profile edited = profile("b2", "blooming_espresso.tcl", "Blooming espresso 2", "");
+        tag("t2", "v1.1", 2000, edited);
+        tag("t3", "v1.2", 3000, edited, new Profile("x", "missing.tcl", "Missing", null));
+        assertEquals(1, index.sync(lib)); // t3 has content yet to be fetched
+        assertEquals(2, index.search("blooming", 10).size());
+
+        contents.put("x", "profile_title Missing".getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, index.sync(lib));
+        assertEquals(0, index.sync(lib));
+        assertEquals("v1.2", index.search("missing", 10).get(0).getRefs().get(0).getValue0().getName());
+    }
+}
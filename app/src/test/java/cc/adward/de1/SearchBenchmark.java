@@ -0,0 +1,42 @@
+package cc.adward.de1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+    @Param({"espresso", "bloom", "londinum", "gentle sweet"}) // word, prefix, typo, two words
+    public String query;
+
+    private ProfileSearchIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        index = ProfileLibrary.load(ByteBuffer.wrap(BenchmarkFixtures.library())).getSearchIndex();
+    }
+
+    @Benchmark
+    public List<ProfileSearchIndex.Hit> search() {
+        return index.search(query, 20);
+    }
+}
@@ -0,0 +1,100 @@
+package cc.adward.de1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TagArchiveTest {
+
+    private static final String ROOT = "decentespresso-de1app-0e5fdae/";
+
+    private final ByteArrayOutputStream tar = new ByteArrayOutputStream();
+
+    private void entry(String name, String prefix, byte type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        put(header, 0, name.getBytes(StandardCharsets.UTF_8));
+        put(header, 124, String.format("%011o", content.length).getBytes(StandardCharsets.US_ASCII));
+        header[156] = type;
+        put(header, 257, "ustar\u000000".getBytes(StandardCharsets.US_ASCII));
+        put(header, 345, prefix.getBytes(StandardCharsets.UTF_8));
+        tar.write(header);
+        tar.write(content);
+        tar.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void put(byte[] header, int offset, byte[] value) {
+        System.arraycopy(value, 0, header, offset, value.length);
+    }
+
+    private void file(String name, String content) throws IOException {
+        entry(name, "", (byte) '0', content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String paxRecord(String key, String value) {
+        // the length counts bytes of the whole record, itself included
+        int rest = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = rest + 1;
+        while (String.valueOf(length).length() + rest != length) {
+            ++length;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private Map<String, byte[]> extract(String... wanted) throws IOException {
+        tar.write(new byte[1024]);
+        return TagArchive.extractProfiles(new ByteArrayInputStream(tar.toByteArray()), new HashSet<>(Arrays.asList(wanted)));
+    }
+
+    private static String sha(String content) {
+        return GitBlob.sha(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void extractsWantedProfilesOnly() throws IOException {
+        entry("pax_global_header", "", (byte) 'g', paxRecord("comment", "0e5fdae").getBytes(StandardCharsets.UTF_8));
+        file(ROOT, "");
+        file(ROOT + "de1plus/de1plus.tcl", "package provide de1plus 1.0");
+        file(ROOT + "de1plus/profiles/Default.tcl", "profile_title Default");
+        file(ROOT + "de1plus/profiles/Unwanted.tcl", "profile_title Unwanted");
+        file(ROOT + "de1plus/profiles/old/Nested.tcl", "profile_title Nested");
+        entry("Blooming espresso.tcl", ROOT + "de1plus/profiles", (byte) '0', "profile_title {Blooming espresso}".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, byte[]> found = extract(sha("profile_title Default"), sha("profile_title Nested"),
+                sha("profile_title {Blooming espresso}"), sha("package provide de1plus 1.0"));
+        assertEquals(new HashSet<>(Arrays.asList(sha("profile_title Default"), sha("profile_title {Blooming espresso}"))),
+                found.keySet());
+        assertEquals("profile_title Default", new String(found.get(sha("profile_title Default")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void followsGnuLongNames() throws IOException {
+        String name = ROOT + "de1plus/profiles/" + String.join("", java.util.Collections.nCopies(12, "Long name ")) + ".tcl";
+        entry("././@LongLink", "", (byte) 'L', (name + "\u0000").getBytes(StandardCharsets.UTF_8));
+        file(name.substring(0, 100), "profile_title Long");
+        file(ROOT + "de1plus/profiles/Short.tcl", "profile_title Short"); // the long name applies to one entry only
+
+        assertEquals(new HashSet<>(Arrays.asList(sha("profile_title Long"), sha("profile_title Short"))),
+                extract(sha("profile_title Long"), sha("profile_title Short")).keySet());
+    }
+
+    @Test
+    public void followsPaxPaths() throws IOException {
+        String name = ROOT + "de1plus/profiles/Caf\u00e9 cr\u00e8me.tcl";
+        String records = paxRecord("mtime", "1603358502") + paxRecord("path", name);
+        entry("PaxHeaders/Cafe", "", (byte) 'x', records.getBytes(StandardCharsets.UTF_8));
+        file("Caf? cr?me.tcl", "profile_title {Caf\u00e9 cr\u00e8me}");
+        entry("PaxHeaders/Skins", "", (byte) 'x', paxRecord("path", ROOT + "skins/Caf\u00e9.tcl").getBytes(StandardCharsets.UTF_8));
+        file(ROOT + "de1plus/profiles/Decoy.tcl", "profile_title Decoy");
+
+        Map<String, byte[]> found = extract(sha("profile_title {Caf\u00e9 cr\u00e8me}"), sha("profile_title Decoy"));
+        assertEquals(new HashSet<>(Arrays.asList(sha("profile_title {Caf\u00e9 cr\u00e8me}"))), found.keySet());
+    }
+}